@@ -0,0 +1,29 @@
+package com.noodle.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Temporary directories for storage files of benchmarks.
+ */
+final class BenchmarkFiles {
+
+  private BenchmarkFiles() {
+  }
+
+  static File createDirectory() throws IOException {
+    return Files.createTempDirectory("noodle-benchmark").toFile();
+  }
+
+  static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
@@ -0,0 +1,116 @@
+package com.noodle.benchmark;
+
+import com.google.gson.Gson;
+import com.noodle.Description;
+import com.noodle.collection.Collection;
+import com.noodle.collection.GsonConverter;
+import com.noodle.collection.StoredConvertedCollection;
+import com.noodle.storage.RandomAccessFileStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of {@link StoredConvertedCollection} with {@link GsonConverter}
+ * on items of random ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionBenchmark {
+
+  private static final int BATCH_SIZE = 10000;
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int recordCount;
+
+  private File directory;
+  private RandomAccessFileStorage storage;
+  private StoredConvertedCollection<Item> collection;
+  private Item item;
+
+  // Matches about one item of 120.
+  private final Collection.Predicate<Item> filter = new Collection.Predicate<Item>() {
+    @Override
+    public boolean test(final Item item) {
+      return item.year == 2000;
+    }
+  };
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = BenchmarkFiles.createDirectory();
+    storage = new RandomAccessFileStorage.Builder(new File(directory, "collection.noodle"))
+        .build();
+    collection = new StoredConvertedCollection<>(
+        Item.class,
+        Description.of(Item.class)
+            .withIdField("id")
+            .withCollectionName("Item")
+            .build(),
+        new GsonConverter(new Gson()),
+        storage
+    );
+
+    final List<Item> items = new ArrayList<>(BATCH_SIZE);
+    for (long id = 1; id <= recordCount; id++) {
+      items.add(new Item(id));
+      if (items.size() == BATCH_SIZE || id == recordCount) {
+        collection.putAll(items);
+        items.clear();
+      }
+    }
+    item = new Item(1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    storage.close();
+    BenchmarkFiles.delete(directory);
+  }
+
+  @Benchmark
+  public Item get() {
+    return collection.get(randomId());
+  }
+
+  @Benchmark
+  public Item put() {
+    item.id = randomId();
+    return collection.put(item);
+  }
+
+  @Benchmark
+  public List<Item> filter() {
+    return collection.filter(filter);
+  }
+
+  @Benchmark
+  public int count() {
+    return collection.count();
+  }
+
+  private long randomId() {
+    return ThreadLocalRandom.current().nextLong(1, recordCount + 1);
+  }
+}
@@ -0,0 +1,85 @@
+package com.noodle.benchmark;
+
+import com.noodle.storage.RandomAccessFileStorage;
+import com.noodle.storage.Record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of {@link RandomAccessFileStorage} from several threads, while a single
+ * writer keeps putting records. Reads should scale with the number of readers,
+ * which is changed with <pre>-tg 8,1</pre>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentStorageBenchmark {
+
+  private static final String COLLECTION = "records";
+  private static final int RECORD_SIZE = 200;
+
+  @Param({"10000"})
+  int recordCount;
+
+  private File directory;
+  private RandomAccessFileStorage storage;
+  private byte[] data;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = BenchmarkFiles.createDirectory();
+    storage = new RandomAccessFileStorage.Builder(new File(directory, "storage.noodle")).build();
+
+    data = new byte[RECORD_SIZE];
+    new Random(1).nextBytes(data);
+    for (long id = 1; id <= recordCount; id++) {
+      storage.put(COLLECTION, id, data, data.length);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    storage.close();
+    BenchmarkFiles.delete(directory);
+  }
+
+  @Benchmark
+  @Group("readWhileWriting")
+  @GroupThreads(4)
+  public Record read() {
+    return storage.get(COLLECTION, randomId());
+  }
+
+  @Benchmark
+  @Group("readWhileWriting")
+  @GroupThreads(1)
+  public void write() {
+    storage.put(COLLECTION, randomId(), data, data.length);
+  }
+
+  private long randomId() {
+    return ThreadLocalRandom.current().nextLong(1, recordCount + 1);
+  }
+}
@@ -0,0 +1,48 @@
+package com.noodle.benchmark;
+
+import com.google.gson.Gson;
+import com.noodle.collection.GsonConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a single item with {@link GsonConverter}. Unlike other
+ * benchmarks, it does not depend on the number of stored records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+  private final GsonConverter converter = new GsonConverter(new Gson());
+  private final Item item = new Item(42);
+  private final byte[] bytes = converter.toBytes(item);
+
+  @Benchmark
+  public byte[] toBytes() {
+    return converter.toBytes(item);
+  }
+
+  @Benchmark
+  public Item fromBytes() {
+    return converter.fromBytes(bytes, Item.class);
+  }
+
+  @Benchmark
+  public Item roundTrip() {
+    return converter.fromBytes(converter.toBytes(item), Item.class);
+  }
+}
@@ -0,0 +1,25 @@
+package com.noodle.benchmark;
+
+import com.noodle.Id;
+
+/**
+ * Item of the benchmarked collection, about 80 bytes of JSON.
+ */
+public class Item {
+
+  @Id
+  long id;
+  String title;
+  String author;
+  int year;
+
+  public Item() {
+  }
+
+  Item(final long id) {
+    this.id = id;
+    this.title = "Title of the item " + id;
+    this.author = "Author " + id % 100;
+    this.year = 1900 + (int) (id % 120);
+  }
+}
@@ -0,0 +1,116 @@
+package com.noodle.benchmark;
+
+import com.noodle.storage.AesGcmEncryption;
+import com.noodle.storage.CollectionKey;
+import com.noodle.storage.Encryption;
+import com.noodle.storage.RandomAccessFileStorage;
+import com.noodle.storage.Record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of {@link RandomAccessFileStorage} on records of random ids,
+ * with plain and encrypted data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+  private static final byte[] KEY = new byte[16];
+
+  private static final String COLLECTION = "records";
+  // Small collection, which keys are looked up by the prefix.
+  private static final String TAGS = "tags";
+  private static final int TAG_COUNT = 100;
+  private static final int RECORD_SIZE = 200;
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int recordCount;
+
+  @Param({"none", "aes-gcm"})
+  String encryption;
+
+  private File directory;
+  private RandomAccessFileStorage storage;
+  private byte[] data;
+  private byte[] tagsPrefix;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = BenchmarkFiles.createDirectory();
+    storage = new RandomAccessFileStorage.Builder(new File(directory, "storage.noodle"))
+        .encryption("aes-gcm".equals(encryption)
+            ? new AesGcmEncryption(KEY)
+            : Encryption.NO_ENCRYPTION)
+        .build();
+
+    data = new byte[RECORD_SIZE];
+    new Random(1).nextBytes(data);
+    for (long id = 1; id <= recordCount; id++) {
+      storage.put(COLLECTION, id, data, data.length);
+    }
+    for (long id = 1; id <= TAG_COUNT; id++) {
+      storage.put(TAGS, id, data, data.length);
+    }
+    tagsPrefix = CollectionKey.prefixOf(TAGS);
+  }
+
+  @TearDown
+  public void tearDown() {
+    storage.close();
+    BenchmarkFiles.delete(directory);
+  }
+
+  @Benchmark
+  public Record get() {
+    return storage.get(COLLECTION, randomId());
+  }
+
+  @Benchmark
+  public void put() {
+    storage.put(COLLECTION, randomId(), data, data.length);
+  }
+
+  /**
+   * Puts the removed record back, so that the number of records stays the same.
+   */
+  @Benchmark
+  public Record removeAndPut() {
+    final Record removed = storage.remove(CollectionKey.of(COLLECTION, randomId()));
+    if (removed != null) {
+      storage.put(removed);
+    }
+    return removed;
+  }
+
+  @Benchmark
+  public List<byte[]> prefixedWith() {
+    return storage.prefixedWith(tagsPrefix);
+  }
+
+  private long randomId() {
+    return ThreadLocalRandom.current().nextLong(1, recordCount + 1);
+  }
+}
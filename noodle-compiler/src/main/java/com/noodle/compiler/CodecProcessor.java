@@ -0,0 +1,370 @@
+package com.noodle.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates {@code com.noodle.collection.BinaryCodec} for each class with
+ * an {@code @Id} field, so that the {@code BinaryConverter} writes and reads
+ * its items without reflection. Codec is a class named {@code ClassName$$NoodleCodec}
+ * in the package of the entity, which accesses its fields directly, so fields
+ * must not be private.
+ */
+public class CodecProcessor extends AbstractProcessor {
+
+  private static final String ID_ANNOTATION = "com.noodle.Id";
+  private static final String CODEC_SUFFIX = "$$NoodleCodec";
+
+  // Boxed types of list elements, see BinaryReader.readList.
+  private static final Set<String> LIST_ELEMENTS = new LinkedHashSet<>();
+
+  static {
+    Collections.addAll(LIST_ELEMENTS,
+        "java.lang.String", "java.lang.Long", "java.lang.Integer", "java.lang.Short",
+        "java.lang.Byte", "java.lang.Double", "java.lang.Float", "java.lang.Boolean");
+  }
+
+  private Filer filer;
+  private Messager messager;
+
+  @Override
+  public synchronized void init(final ProcessingEnvironment env) {
+    super.init(env);
+    this.filer = env.getFiler();
+    this.messager = env.getMessager();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(ID_ANNOTATION);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+    final TypeElement id = processingEnv.getElementUtils().getTypeElement(ID_ANNOTATION);
+    if (id == null) {
+      return false;
+    }
+
+    final Set<TypeElement> entities = new LinkedHashSet<>();
+    for (Element field : round.getElementsAnnotatedWith(id)) {
+      entities.add((TypeElement) field.getEnclosingElement());
+    }
+    for (TypeElement entity : entities) {
+      if (!entity.getModifiers().contains(Modifier.ABSTRACT)) {
+        generateCodec(entity);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the tag of the field, same as {@code BinaryWriter.tagOf}.
+   */
+  static int tagOf(final String fieldName) {
+    final int hash = fieldName.hashCode();
+    return (hash ^ (hash >>> 16)) & 0x1FFFFF;
+  }
+
+  private void generateCodec(final TypeElement entity) {
+    if (!checkEntity(entity)) {
+      return;
+    }
+
+    final String packageName = packageOf(entity).getQualifiedName().toString();
+    final String typeName = entity.getQualifiedName().toString();
+    final String codecName = binaryNameOf(entity) + CODEC_SUFFIX;
+
+    final StringBuilder write = new StringBuilder();
+    final StringBuilder read = new StringBuilder();
+    final Map<Integer, String> tags = new HashMap<>();
+    for (VariableElement field : fieldsOf(entity)) {
+      final String name = field.getSimpleName().toString();
+      final int tag = tagOf(name);
+      if (tags.containsKey(tag)) {
+        error(field, "Tag of field " + name + " is the same as of field " + tags.get(tag)
+            + ", rename one of them");
+        return;
+      }
+      tags.put(tag, name);
+
+      final String[] code = codeOf(field, packageOf(entity), tag);
+      if (code == null) {
+        return;
+      }
+      write.append("    ").append(code[0]).append('\n');
+      if (!field.getModifiers().contains(Modifier.FINAL)) {
+        read.append("        case ").append(tag).append(":\n")
+            .append("          ").append(code[1]).append('\n')
+            .append("          break;\n");
+      }
+    }
+
+    final StringBuilder source = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source.append("import com.noodle.collection.BinaryCodec;\n")
+        .append("import com.noodle.collection.BinaryReader;\n")
+        .append("import com.noodle.collection.BinaryWriter;\n\n")
+        .append("/**\n * Generated by noodle-compiler, do not edit.\n */\n")
+        .append("public final class ").append(codecName)
+        .append(" implements BinaryCodec<").append(typeName).append("> {\n\n")
+        .append("  @Override\n")
+        .append("  public void write(final ").append(typeName)
+        .append(" t, final BinaryWriter writer) {\n")
+        .append(write)
+        .append("  }\n\n")
+        .append("  @Override\n")
+        .append("  public ").append(typeName).append(" read(final BinaryReader reader) {\n")
+        .append("    final ").append(typeName).append(" t = new ").append(typeName).append("();\n")
+        .append("    while (reader.nextField()) {\n")
+        .append("      switch (reader.tag()) {\n")
+        .append(read)
+        .append("        default:\n")
+        .append("          reader.skip();\n")
+        .append("      }\n")
+        .append("    }\n")
+        .append("    return t;\n")
+        .append("  }\n")
+        .append("}\n");
+
+    final String fileName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+    try {
+      final JavaFileObject file = filer.createSourceFile(fileName, entity);
+      final Writer writer = file.openWriter();
+      try {
+        writer.write(source.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      error(entity, "Cannot write codec: " + e.getMessage());
+    }
+  }
+
+  private boolean checkEntity(final TypeElement entity) {
+    for (Element type = entity; type instanceof TypeElement; type = type.getEnclosingElement()) {
+      if (type.getModifiers().contains(Modifier.PRIVATE)) {
+        error(entity, "Entity with a codec must not be private");
+        return false;
+      }
+      if (((TypeElement) type).getNestingKind() == NestingKind.MEMBER
+          && !type.getModifiers().contains(Modifier.STATIC)) {
+        error(entity, "Entity with a codec must be a static class");
+        return false;
+      }
+    }
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()
+          && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        return true;
+      }
+    }
+    error(entity, "Entity with a codec must have a non private constructor without arguments");
+    return false;
+  }
+
+  /**
+   * Returns fields of the entity and its superclasses, that are written.
+   */
+  private List<VariableElement> fieldsOf(final TypeElement entity) {
+    final List<VariableElement> result = new ArrayList<>();
+    for (TypeElement type = entity; type != null; type = superclassOf(type)) {
+      for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+        final Set<Modifier> modifiers = field.getModifiers();
+        if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+          result.add(field);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns statements, that write and read the field, or null if it is not supported.
+   */
+  private String[] codeOf(final VariableElement field,
+                          final PackageElement entityPackage,
+                          final int tag) {
+    final String name = field.getSimpleName().toString();
+    final Set<Modifier> modifiers = field.getModifiers();
+    if (modifiers.contains(Modifier.PRIVATE)) {
+      error(field, "Field " + name + " must not be private to be written by the codec");
+      return null;
+    }
+    if (!modifiers.contains(Modifier.PUBLIC) && !packageOf(field).equals(entityPackage)) {
+      error(field, "Field " + name + " of the superclass in other package must be public");
+      return null;
+    }
+
+    final String value = "t." + name;
+    final TypeMirror type = field.asType();
+    switch (type.getKind()) {
+      case LONG:
+        return code("writer.writeLong(" + tag + ", " + value + ");",
+            value + " = reader.readLong();");
+      case INT:
+        return code("writer.writeLong(" + tag + ", " + value + ");",
+            value + " = reader.readInt();");
+      case SHORT:
+        return code("writer.writeLong(" + tag + ", " + value + ");",
+            value + " = (short) reader.readLong();");
+      case BYTE:
+        return code("writer.writeLong(" + tag + ", " + value + ");",
+            value + " = (byte) reader.readLong();");
+      case DOUBLE:
+        return code("writer.writeDouble(" + tag + ", " + value + ");",
+            value + " = reader.readDouble();");
+      case FLOAT:
+        return code("writer.writeFloat(" + tag + ", " + value + ");",
+            value + " = reader.readFloat();");
+      case BOOLEAN:
+        return code("writer.writeBoolean(" + tag + ", " + value + ");",
+            value + " = reader.readBoolean();");
+      case CHAR:
+        return code("writer.writeString(" + tag + ", String.valueOf(" + value + "));",
+            value + " = reader.readString().charAt(0);");
+      case ARRAY:
+        if (type.toString().equals("byte[]")) {
+          return code("writer.writeBytes(" + tag + ", " + value + ");",
+              value + " = reader.readBytes();");
+        }
+        break;
+      case DECLARED:
+        final String[] code = codeOfDeclared(field, (DeclaredType) type, tag, value);
+        if (code != null) {
+          return code;
+        }
+        break;
+      default:
+        break;
+    }
+    error(field, "Type of field " + name + " is not supported by the codec, mark it transient");
+    return null;
+  }
+
+  private String[] codeOfDeclared(final VariableElement field,
+                                  final DeclaredType type,
+                                  final int tag,
+                                  final String value) {
+    final TypeElement element = (TypeElement) type.asElement();
+    final String typeName = element.getQualifiedName().toString();
+    final String ifPresent = "if (" + value + " != null) ";
+    switch (typeName) {
+      case "java.lang.String":
+        return code("writer.writeString(" + tag + ", " + value + ");",
+            value + " = reader.readString();");
+      case "java.lang.Long":
+        return code(ifPresent + "writer.writeLong(" + tag + ", " + value + ");",
+            value + " = reader.readLong();");
+      case "java.lang.Integer":
+        return code(ifPresent + "writer.writeLong(" + tag + ", " + value + ");",
+            value + " = reader.readInt();");
+      case "java.lang.Short":
+        return code(ifPresent + "writer.writeLong(" + tag + ", " + value + ");",
+            value + " = (short) reader.readLong();");
+      case "java.lang.Byte":
+        return code(ifPresent + "writer.writeLong(" + tag + ", " + value + ");",
+            value + " = (byte) reader.readLong();");
+      case "java.lang.Double":
+        return code(ifPresent + "writer.writeDouble(" + tag + ", " + value + ");",
+            value + " = reader.readDouble();");
+      case "java.lang.Float":
+        return code(ifPresent + "writer.writeFloat(" + tag + ", " + value + ");",
+            value + " = reader.readFloat();");
+      case "java.lang.Boolean":
+        return code(ifPresent + "writer.writeBoolean(" + tag + ", " + value + ");",
+            value + " = reader.readBoolean();");
+      case "java.lang.Character":
+        return code(ifPresent + "writer.writeString(" + tag + ", " + value + ".toString());",
+            value + " = reader.readString().charAt(0);");
+      case "java.util.List":
+      case "java.util.ArrayList":
+        if (type.getTypeArguments().size() != 1) {
+          return null;
+        }
+        final String elementName = type.getTypeArguments().get(0).toString();
+        if (!LIST_ELEMENTS.contains(elementName)) {
+          return null;
+        }
+        return code("writer.writeList(" + tag + ", " + value + ");",
+            value + " = reader.readList(" + elementName + ".class);");
+      default:
+        if (element.getKind() == ElementKind.ENUM) {
+          return code(ifPresent + "writer.writeString(" + tag + ", " + value + ".name());",
+              value + " = " + typeName + ".valueOf(reader.readString());");
+        }
+        return null;
+    }
+  }
+
+  private static String[] code(final String write, final String read) {
+    return new String[]{write, read};
+  }
+
+  private TypeElement superclassOf(final TypeElement type) {
+    final TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    final TypeElement result = (TypeElement) ((DeclaredType) superclass).asElement();
+    return result.getQualifiedName().contentEquals("java.lang.Object") ? null : result;
+  }
+
+  private static PackageElement packageOf(final Element element) {
+    Element result = element;
+    while (result.getKind() != ElementKind.PACKAGE) {
+      result = result.getEnclosingElement();
+    }
+    return (PackageElement) result;
+  }
+
+  /**
+   * Returns the name of the class within its package, as in {@code Outer$Inner}.
+   */
+  private static String binaryNameOf(final TypeElement type) {
+    final String name = type.getSimpleName().toString();
+    final Element enclosing = type.getEnclosingElement();
+    return enclosing instanceof TypeElement
+        ? binaryNameOf((TypeElement) enclosing) + "$" + name
+        : name;
+  }
+
+  private void error(final Element element, final String message) {
+    messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
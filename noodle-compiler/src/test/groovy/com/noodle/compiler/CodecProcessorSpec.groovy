@@ -0,0 +1,209 @@
+package com.noodle.compiler
+
+import com.noodle.Id
+import com.noodle.collection.BinaryConverter
+import com.noodle.collection.BinaryWriter
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.tools.Diagnostic
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.ToolProvider
+
+class CodecProcessorSpec extends Specification {
+
+  private static final String ENTITY = """
+      package sample;
+
+      import com.noodle.Id;
+      import java.util.List;
+
+      public class Entity {
+
+        public enum Kind { ONE, TWO }
+
+        public static class Nested {
+          @Id public long id;
+          public String title;
+        }
+
+        @Id public long id;
+        public int year;
+        public double rating;
+        public boolean done;
+        public char letter;
+        public Integer count;
+        public Long total;
+        public String name;
+        public byte[] data;
+        public List<String> tags;
+        public List<Long> numbers;
+        public Kind kind;
+        public transient Object ignored;
+      }
+      """
+
+  private File dir
+
+  void setup() {
+    dir = File.createTempDir()
+  }
+
+  void cleanup() {
+    dir.deleteDir()
+  }
+
+  /**
+   * Compiles the sources with CodecProcessor.
+   *
+   * @return class loader of compiled classes, or errors of the compiler
+   */
+  private compile(Map<String, String> sources) {
+    def sourceDir = new File(dir, "src")
+    def outputDir = new File(dir, "classes")
+    outputDir.mkdirs()
+    def files = sources.collect { name, source ->
+      def file = new File(sourceDir, name.replace('.', '/') + ".java")
+      file.parentFile.mkdirs()
+      file.text = source.stripIndent()
+      file
+    }
+
+    def compiler = ToolProvider.getSystemJavaCompiler()
+    def diagnostics = new DiagnosticCollector<JavaFileObject>()
+    def fileManager = compiler.getStandardFileManager(diagnostics, null, null)
+    def classpath = new File(Id.protectionDomain.codeSource.location.toURI()).path
+    def task = compiler.getTask(null, fileManager, diagnostics,
+        ["-d", outputDir.path, "-s", outputDir.path, "-classpath", classpath],
+        null, fileManager.getJavaFileObjectsFromFiles(files))
+    task.processors = [new CodecProcessor()]
+    def compiled = task.call()
+    fileManager.close()
+
+    if (!compiled) {
+      return diagnostics.diagnostics
+          .findAll { it.kind == Diagnostic.Kind.ERROR }
+          .collect { it.getMessage(null) }
+    }
+    new URLClassLoader([outputDir.toURI().toURL()] as URL[], getClass().classLoader)
+  }
+
+  def "should generate codecs, that restore all fields"() {
+    given:
+    def loader = compile("sample.Entity": ENTITY)
+    def type = loader.loadClass("sample.Entity")
+    def item = type.newInstance()
+    item.id = -42
+    item.year = 1961
+    item.rating = 4.5d
+    item.done = true
+    item.letter = 'ł' as char
+    item.total = Long.MAX_VALUE
+    item.name = "Stanisław Lem"
+    item.data = [0, 0x80, 0xFF] as byte[]
+    item.tags = ["a", "b"]
+    item.numbers = [1L, -1L]
+    item.kind = Enum.valueOf(loader.loadClass('sample.Entity$Kind'), "TWO")
+    item.ignored = "ignored"
+
+    when:
+    def converter = new BinaryConverter()
+    def result = converter.fromBytes(converter.toBytes(item), type)
+
+    then:
+    result.id == -42
+    result.year == 1961
+    result.rating == 4.5d
+    result.done
+    result.letter == 'ł' as char
+    result.count == null
+    result.total == Long.MAX_VALUE
+    result.name == "Stanisław Lem"
+    result.data == [0, 0x80, 0xFF] as byte[]
+    result.tags == ["a", "b"]
+    result.numbers == [1L, -1L]
+    result.kind.name() == "TWO"
+    result.ignored == null
+  }
+
+  def "should leave null fields null"() {
+    given:
+    def loader = compile("sample.Entity": ENTITY)
+    def type = loader.loadClass("sample.Entity")
+    def item = type.newInstance()
+    item.id = 1
+
+    when:
+    def converter = new BinaryConverter()
+    def result = converter.fromBytes(converter.toBytes(item), type)
+
+    then:
+    result.count == null
+    result.total == null
+    result.name == null
+    result.data == null
+    result.tags == null
+    result.kind == null
+  }
+
+  def "should generate codecs of nested classes"() {
+    given:
+    def loader = compile("sample.Entity": ENTITY)
+    def type = loader.loadClass('sample.Entity$Nested')
+    def item = type.newInstance()
+    item.id = 7
+    item.title = "Solaris"
+
+    when:
+    def converter = new BinaryConverter()
+    def result = converter.fromBytes(converter.toBytes(item), type)
+
+    then:
+    loader.loadClass('sample.Entity$Nested$$NoodleCodec') != null
+    result.id == 7
+    result.title == "Solaris"
+  }
+
+  def "should write fields with tags of their names"() {
+    given:
+    def loader = compile("sample.Entity": ENTITY)
+    def type = loader.loadClass("sample.Entity")
+    def writer = new BinaryWriter()
+    writer.writeLong(BinaryWriter.tagOf("id"), 3)
+    writer.writeString(BinaryWriter.tagOf("unknown"), "skipped")
+    writer.writeString(BinaryWriter.tagOf("name"), "Lem")
+
+    when:
+    def result = new BinaryConverter().fromBytes(writer.toByteArray(), type)
+
+    then:
+    CodecProcessor.tagOf("name") == BinaryWriter.tagOf("name")
+    result.id == 3
+    result.name == "Lem"
+  }
+
+  @Unroll
+  def "should fail to compile entity with #field"() {
+    when:
+    def errors = compile("sample.Broken": """
+        package sample;
+
+        public class Broken {
+          @com.noodle.Id long id;
+          $field;
+        }
+        """)
+
+    then:
+    errors instanceof List
+    errors.any { it.contains(error) }
+
+    where:
+    field                                    | error
+    "java.util.Date date"                    | "Type of field date is not supported"
+    "java.util.List<Object> values"          | "Type of field values is not supported"
+    "Broken parent"                          | "Type of field parent is not supported"
+    "private String name"                    | "Field name must not be private"
+  }
+}
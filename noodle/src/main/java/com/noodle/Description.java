@@ -2,6 +2,10 @@ package com.noodle;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * Knows how to get and set id of an item.<br/>
@@ -13,15 +17,18 @@ public class Description<T> {
   final String collectionName;
   final GetIdOperator<T> getIdOperator;
   final SetIdOperator<T> setIdOperator;
+  final LinkedHashMap<String, Field> indexedFields;
 
   private Description(final Class<T> clazz,
                       final String collectionName,
                       final GetIdOperator<T> getIdOperator,
-                      final SetIdOperator<T> setIdOperator) {
+                      final SetIdOperator<T> setIdOperator,
+                      final LinkedHashMap<String, Field> indexedFields) {
     this.clazz = clazz;
     this.collectionName = collectionName;
     this.getIdOperator = getIdOperator;
     this.setIdOperator = setIdOperator;
+    this.indexedFields = indexedFields;
   }
 
   /**
@@ -55,6 +62,48 @@ public class Description<T> {
     return setIdOperator.setId(t, id);
   }
 
+  /**
+   * Returns names of the fields, that items are indexed by.
+   *
+   * @return unmodifiable list of field names
+   */
+  public List<String> getIndexedFields() {
+    return Collections.unmodifiableList(new ArrayList<>(indexedFields.keySet()));
+  }
+
+  /**
+   * Returns declared type of the indexed field.
+   *
+   * @param fieldName name of the indexed field
+   * @return field type
+   */
+  public Class<?> typeOfIndexedField(final String fieldName) {
+    return indexedField(fieldName).getType();
+  }
+
+  /**
+   * Returns value of the indexed field of the item.
+   *
+   * @param t         item to get the value of
+   * @param fieldName name of the indexed field
+   * @return field value, primitives are boxed
+   */
+  public Object valueOfIndexedField(final T t, final String fieldName) {
+    try {
+      return indexedField(fieldName).get(t);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Field indexedField(final String fieldName) {
+    final Field field = indexedFields.get(fieldName);
+    if (field == null) {
+      throw new IllegalArgumentException("Field " + fieldName + " is not indexed");
+    }
+    return field;
+  }
+
   /**
    * Type this is description of
    *
@@ -84,6 +133,7 @@ public class Description<T> {
     private String collectionName;
     private GetIdOperator<T> getIdOperator;
     private SetIdOperator<T> setIdOperator;
+    private final LinkedHashMap<String, Field> indexedFields = new LinkedHashMap<>();
 
     DescriptionBuilder(final Class<T> clazz) {
       this.clazz = clazz;
@@ -126,6 +176,26 @@ public class Description<T> {
       return this;
     }
 
+    /**
+     * Makes the collection keep the index of items by the value of the field,
+     * see {@link Indexed}.
+     *
+     * @param fieldName name of the field
+     * @return this builder instance
+     */
+    public DescriptionBuilder<T> withIndexedField(final String fieldName) {
+      try {
+        final Field field = clazz.getDeclaredField(fieldName);
+        if (!field.isAccessible()) {
+          field.setAccessible(true);
+        }
+        indexedFields.put(fieldName, field);
+      } catch (NoSuchFieldException e) {
+        throw new RuntimeException(e);
+      }
+      return this;
+    }
+
     /**
      * Overrides the collection name. Useful when migrating data.
      * By default collection name is set to {@link Class#getSimpleName()}.
@@ -157,7 +227,8 @@ public class Description<T> {
         throw new RuntimeException("Collection name may not be empty or null. Found " + collectionName);
       }
 
-      return new Description<>(clazz, collectionName, getIdOperator, setIdOperator);
+      return new Description<>(clazz, collectionName, getIdOperator, setIdOperator,
+          new LinkedHashMap<>(indexedFields));
     }
   }
 
@@ -0,0 +1,17 @@
+package com.noodle;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Put on the field of your entity to look items up by its value with
+ * {@link com.noodle.collection.Collection#findBy(String, Object)} and
+ * {@link com.noodle.collection.Collection#range(String, Object, Object)}.
+ * Field may be of a primitive, String or enum type.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+}
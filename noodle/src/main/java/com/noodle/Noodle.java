@@ -7,12 +7,16 @@ import com.noodle.collection.Collection;
 import com.noodle.collection.Converter;
 import com.noodle.collection.GsonConverter;
 import com.noodle.collection.StoredConvertedCollection;
+import com.noodle.storage.Compactor;
+import com.noodle.storage.Durability;
 import com.noodle.storage.Encryption;
 import com.noodle.storage.RandomAccessFileStorage;
 import com.noodle.storage.Record;
 import com.noodle.storage.Storage;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.HashMap;
@@ -21,7 +25,8 @@ import java.util.concurrent.Callable;
 
 /**
  * Noodle is a lightweight super-simple persistence framework.
- * It does not have relations, columns, thread contained objects and indexes.
+ * It does not have relations, columns and thread contained objects. Items can be
+ * looked up by id, or by fields marked with {@link Indexed}.
  * All data is accessed via {@link Collection} classes. All types of objects
  * that you want to store must be declared at construction time.
  * <br/>
@@ -39,6 +44,9 @@ public class Noodle {
   final HashMap<String, Collection> collectionHashMap = new HashMap<>();
   final HashMap<String, Description> descriptionHashMap = new HashMap<>();
   final Converter converter;
+  // Maximum number of cached items of each collection, 0 turns caching off.
+  int entityCacheSize;
+  private final Object transactionLock = new Object();
 
 
   /**
@@ -115,7 +123,8 @@ public class Noodle {
       return ((Collection<T>) collection);
     }
 
-    Collection<T> result = new StoredConvertedCollection<>(type, description, converter, storage);
+    Collection<T> result = new StoredConvertedCollection<>(type, description, converter, storage,
+        entityCacheSize);
     collectionHashMap.put(collectionName, result);
 
     return result;
@@ -192,6 +201,49 @@ public class Noodle {
     });
   }
 
+  /**
+   * Runs the body and commits all puts and deletes it has staged atomically:
+   * after a crash either all of them are in the storage, or none.
+   * If the body throws, nothing is written.
+   *
+   * @param body body of the transaction
+   * @return Call, that commits the transaction
+   */
+  public Call<Void> transaction(final Transaction.Body body) {
+    return new Call<>(new Callable<Void>() {
+      @Override
+      public Void call() {
+        // Transactions lock collections in any order, so they run one at a time.
+        synchronized (transactionLock) {
+          final Transaction transaction = new Transaction(Noodle.this);
+          try {
+            body.run(transaction);
+            storage.write(transaction.batch);
+          } finally {
+            transaction.end();
+          }
+          transaction.onCommitted();
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Closes the storage, if it holds any resources. Storage of the default
+   * {@link RandomAccessFileStorage} saves its index on close, so the next
+   * open is faster. Noodle can not be used after that.
+   */
+  public void close() {
+    if (storage instanceof Closeable) {
+      try {
+        ((Closeable) storage).close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   byte[] keyValueKey(final String key) {
     return String.format(Locale.US, "k-v:%s", key).getBytes();
   }
@@ -206,6 +258,13 @@ public class Noodle {
     private String filePath;
     private Converter converter;
     private Encryption encryption;
+    private float garbageRatio = Compactor.DEFAULT_GARBAGE_RATIO;
+    private boolean memoryMapped;
+    private Durability durability = Durability.NONE;
+    private int entityCacheSize;
+    private long recordCacheSize;
+    private boolean compression;
+    private byte[] compressionDictionary;
 
     final HashMap<String, Description> descriptionHashMap = new HashMap<>();
 
@@ -259,8 +318,95 @@ public class Noodle {
       return this;
     }
 
+    /**
+     * Sets the share of outdated records in the data file, after which
+     * it is compacted in background. Values above 1 turn automatic compaction off.
+     *
+     * @param garbageRatio share of dead bytes in the file, from 0 to 1
+     * @return this builder instance
+     */
+    public Builder garbageRatio(final float garbageRatio) {
+      this.garbageRatio = garbageRatio;
+      return this;
+    }
+
+    /**
+     * Makes storage read the data file through memory mapping, which avoids
+     * system calls and locking on reads. Useful for read-heavy workloads.
+     *
+     * @param memoryMapped whether to map the data file into memory
+     * @return this builder instance
+     */
+    public Builder memoryMapped(final boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+      return this;
+    }
+
+    /**
+     * Sets when writes reach the disk. With {@link Durability#GROUP_COMMIT}
+     * each write completes, when it is synced together with writes of other
+     * threads. Default is {@link Durability#NONE}.
+     *
+     * @param durability durability mode
+     * @return this builder instance
+     */
+    public Builder durability(final Durability durability) {
+      this.durability = durability;
+      return this;
+    }
+
+    /**
+     * Makes each collection cache up to the given number of items got by id,
+     * evicting the least recently used ones. Cached items are shared between
+     * callers, so they should not be modified without putting them back.
+     *
+     * @param entityCacheSize maximum number of cached items per collection, 0 turns caching off
+     * @return this builder instance
+     */
+    public Builder entityCacheSize(final int entityCacheSize) {
+      this.entityCacheSize = entityCacheSize;
+      return this;
+    }
+
+    /**
+     * Makes storage keep recently read records in memory, regardless of their type,
+     * so that repeated reads skip the file and decryption.
+     *
+     * @param recordCacheSize size of cached records in bytes, 0 turns caching off
+     * @return this builder instance
+     */
+    public Builder recordCacheSize(final long recordCacheSize) {
+      this.recordCacheSize = recordCacheSize;
+      return this;
+    }
+
+    /**
+     * Makes storage compress stored items, which helps with large text heavy items.
+     * Files with compressed items cannot be read by older versions.
+     *
+     * @param compression whether to compress items
+     * @return this builder instance
+     */
+    public Builder compression(final boolean compression) {
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * Sets the preset dictionary for compression, e.g. a typical encoded item.
+     * It must stay the same for the same file.
+     *
+     * @param compressionDictionary bytes, which are likely to occur in items
+     * @return this builder instance
+     */
+    public Builder compressionDictionary(final byte[] compressionDictionary) {
+      this.compressionDictionary = compressionDictionary;
+      return this;
+    }
+
     /**
      * Register given type to be used in storage with the specified collection name.
+     * Fields with {@link Indexed} annotation are indexed.
      * <b>NOTE: Entity class must have an annotated id field,
      * with {@link Id} annotation present.</b>
      *
@@ -271,6 +417,8 @@ public class Noodle {
      */
     public <T> Builder addType(final Class<T> type, final String collectionName) {
       Field idField = null;
+      final Description.DescriptionBuilder<T> builder = Description.of(type)
+          .withCollectionName(collectionName);
       for (Field field : type.getDeclaredFields()) {
         for (Annotation annotation : field.getAnnotations()) {
           if (annotation.annotationType() == Id.class) {
@@ -278,6 +426,8 @@ public class Noodle {
               throw new RuntimeException("Entity may have only one id field");
             }
             idField = field;
+          } else if (annotation.annotationType() == Indexed.class) {
+            builder.withIndexedField(field.getName());
           }
         }
       }
@@ -286,8 +436,7 @@ public class Noodle {
       }
 
       return addType(
-          Description.of(type)
-              .withCollectionName(collectionName)
+          builder
               .withIdField(idField.getName())
               .build()
       );
@@ -311,15 +460,21 @@ public class Noodle {
      * @return Noodle instance
      */
     public Noodle build() {
-      final Storage storage = new RandomAccessFileStorage(
-          new File(filePath),
-          encryption != null ? encryption : Encryption.NO_ENCRYPTION
-      );
+      final Storage storage = new RandomAccessFileStorage.Builder(new File(filePath))
+          .encryption(encryption != null ? encryption : Encryption.NO_ENCRYPTION)
+          .garbageRatio(garbageRatio)
+          .memoryMapped(memoryMapped)
+          .durability(durability)
+          .recordCacheSize(recordCacheSize)
+          .compression(compression)
+          .compressionDictionary(compressionDictionary)
+          .build();
       final Noodle noodle = new Noodle(
           context,
           storage,
           converter != null ? converter : new GsonConverter(new Gson())
       );
+      noodle.entityCacheSize = entityCacheSize;
       for (Description description : descriptionHashMap.values()) {
         noodle.registerType(description);
       }
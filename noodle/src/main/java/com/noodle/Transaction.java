@@ -0,0 +1,119 @@
+package com.noodle;
+
+import com.noodle.collection.StoredConvertedCollection;
+import com.noodle.storage.Batch;
+import com.noodle.storage.Record;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects puts and deletes of collection items and key-value pairs, which are
+ * committed to the storage atomically with {@link Noodle#transaction(Body)}.
+ * Nothing is written until the body returns. Writes of collections are locked
+ * from the first change of the collection until the transaction ends.
+ */
+public class Transaction {
+
+  private final Noodle noodle;
+  final Batch batch = new Batch();
+  // Collections, which cached items are outdated by the transaction.
+  final Set<StoredConvertedCollection<?>> collections = new HashSet<>();
+
+  Transaction(final Noodle noodle) {
+    this.noodle = noodle;
+  }
+
+  /**
+   * Stages the item to be put to the collection of the given type.
+   * Id is assigned to new items right away.
+   *
+   * @param type type of the collection, see {@link Noodle#collectionOf(Class)}
+   * @param item item to put
+   * @param <T>  type of the item
+   * @return the same item
+   */
+  public <T> T put(final Class<T> type, final T item) {
+    return collectionOf(type).stagePut(batch, item);
+  }
+
+  /**
+   * Stages deletion of the item from the collection of the given type.
+   *
+   * @param type type of the collection, see {@link Noodle#collectionOf(Class)}
+   * @param id   id of the item to delete
+   * @param <T>  type of the item
+   * @return this transaction instance
+   */
+  public <T> Transaction delete(final Class<T> type, final long id) {
+    collectionOf(type).stageDelete(batch, id);
+    return this;
+  }
+
+  /**
+   * Stages the value to be put by key.
+   *
+   * @param key   key that object will be stored with
+   * @param value object
+   * @param <T>   object type
+   * @return this transaction instance
+   */
+  public <T> Transaction put(final String key, final T value) {
+    batch.put(new Record(noodle.keyValueKey(key), noodle.converter.toBytes(value)));
+    return this;
+  }
+
+  /**
+   * Stages deletion of the value by key.
+   *
+   * @param key key to delete object by
+   * @return this transaction instance
+   */
+  public Transaction delete(final String key) {
+    batch.remove(noodle.keyValueKey(key));
+    return this;
+  }
+
+  private <T> StoredConvertedCollection<T> collectionOf(final Class<T> type) {
+    final StoredConvertedCollection<T> collection =
+        (StoredConvertedCollection<T>) noodle.collectionOf(type);
+    if (collections.add(collection)) {
+      collection.lockWrites();
+    }
+    return collection;
+  }
+
+  /**
+   * Unlocks writes of the changed collections, whether the batch is written or not.
+   */
+  void end() {
+    for (StoredConvertedCollection<?> collection : collections) {
+      collection.unlockWrites();
+    }
+  }
+
+  /**
+   * Called after the batch is written.
+   */
+  void onCommitted() {
+    for (StoredConvertedCollection<?> collection : collections) {
+      if (collection.getCache() != null) {
+        collection.getCache().invalidateAll();
+      }
+    }
+  }
+
+  /**
+   * Body of the transaction, which stages the changes.
+   */
+  public interface Body {
+
+    /**
+     * Stages the changes with the transaction. If it throws,
+     * nothing is committed.
+     *
+     * @param transaction transaction to stage changes with
+     */
+    void run(Transaction transaction);
+  }
+}
@@ -0,0 +1,26 @@
+package com.noodle.collection;
+
+/**
+ * Writes and reads items of a type for the {@link BinaryConverter}.
+ * Codecs are generated by noodle-compiler, but may also be written by hand.
+ *
+ * @param <T> type of items
+ */
+public interface BinaryCodec<T> {
+
+  /**
+   * Writes all non null fields of the item.
+   *
+   * @param t      item to write
+   * @param writer destination
+   */
+  void write(T t, BinaryWriter writer);
+
+  /**
+   * Creates the item and sets its fields, skipping unknown ones.
+   *
+   * @param reader source
+   * @return new item
+   */
+  T read(BinaryReader reader);
+}
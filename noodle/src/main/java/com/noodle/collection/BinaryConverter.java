@@ -0,0 +1,190 @@
+package com.noodle.collection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary {@link Converter}. Items are written field by field with
+ * {@link BinaryCodec}s, without reflection and intermediate strings.<br/>
+ * Codecs are generated by noodle-compiler for classes with an {@link com.noodle.Id}
+ * field, and found by name as {@code ClassName$$NoodleCodec}. Codecs of other
+ * classes are set with {@link #register(Class, BinaryCodec)}. Strings, boxed primitives
+ * and byte arrays are converted without codecs.<br/>
+ * Fields are identified by hashes of their names, so fields may be added and
+ * removed, and unknown fields are skipped.
+ */
+public class BinaryConverter implements StreamingConverter, FieldReader {
+
+  static final String CODEC_SUFFIX = "$$NoodleCodec";
+
+  // Types of values, that are stored as a single field, i.e. in the key-value storage.
+  private static final Class<?>[] VALUE_TYPES = {
+      String.class, Long.class, Integer.class, Short.class, Byte.class,
+      Double.class, Float.class, Boolean.class, byte[].class
+  };
+  private static final int VALUE_TAG = 1;
+
+  // Larger writers are not kept, so that a single large item does not hold memory.
+  private static final int MAX_RETAINED_WRITER_SIZE = 64 * 1024;
+
+  // Writers are reused by each thread, unless a codec converts nested items.
+  private static final ThreadLocal<BinaryWriter> WRITERS = new ThreadLocal<>();
+
+  private final ConcurrentHashMap<Class<?>, BinaryCodec<?>> codecs = new ConcurrentHashMap<>();
+
+  public BinaryConverter() {
+    for (Class<?> type : VALUE_TYPES) {
+      codecs.put(type, new ValueCodec(type));
+    }
+  }
+
+  /**
+   * Sets the codec of the type, instead of the generated one.
+   *
+   * @param clazz type of items
+   * @param codec codec of the type
+   * @return this converter
+   */
+  public <T> BinaryConverter register(final Class<T> clazz, final BinaryCodec<T> codec) {
+    codecs.put(clazz, codec);
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> byte[] toBytes(final T t) {
+    final BinaryWriter writer = acquireWriter();
+    try {
+      codecOf((Class<T>) t.getClass()).write(t, writer);
+      return writer.toByteArray();
+    } finally {
+      releaseWriter(writer);
+    }
+  }
+
+  @Override
+  public <T> T fromBytes(final byte[] bytes, final Class<T> clazz) {
+    return codecOf(clazz).read(new BinaryReader(bytes));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> void write(final T t, final OutputStream output) throws IOException {
+    final BinaryWriter writer = acquireWriter();
+    try {
+      codecOf((Class<T>) t.getClass()).write(t, writer);
+      writer.writeTo(output);
+    } finally {
+      releaseWriter(writer);
+    }
+  }
+
+  @Override
+  public void readFields(final byte[] bytes, final String[] fields, final Object[] values) {
+    Arrays.fill(values, null);
+    final int[] tags = new int[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      tags[i] = BinaryWriter.tagOf(fields[i]);
+    }
+
+    final BinaryReader reader = new BinaryReader(bytes);
+    int found = 0;
+    while (found < fields.length && reader.nextField()) {
+      final int index = indexOf(tags, reader.tag());
+      if (index < 0) {
+        reader.skip();
+      } else {
+        values[index] = reader.readValue();
+        found++;
+      }
+    }
+  }
+
+  /**
+   * Returns the same names, as tags are hashes of Java field names.
+   */
+  @Override
+  public String[] encodedNamesOf(final Class<?> clazz, final String[] fields) {
+    return fields;
+  }
+
+  private static BinaryWriter acquireWriter() {
+    final BinaryWriter writer = WRITERS.get();
+    if (writer == null) {
+      return new BinaryWriter();
+    }
+    // Taken until released, so that nested conversions use their own writers.
+    WRITERS.set(null);
+    writer.reset();
+    return writer;
+  }
+
+  private static void releaseWriter(final BinaryWriter writer) {
+    if (writer.capacity() <= MAX_RETAINED_WRITER_SIZE) {
+      WRITERS.set(writer);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> BinaryCodec<T> codecOf(final Class<T> clazz) {
+    BinaryCodec<?> codec = codecs.get(clazz);
+    if (codec == null) {
+      codec = loadGeneratedCodec(clazz);
+      final BinaryCodec<?> existing = codecs.putIfAbsent(clazz, codec);
+      if (existing != null) {
+        codec = existing;
+      }
+    }
+    return (BinaryCodec<T>) codec;
+  }
+
+  private static BinaryCodec<?> loadGeneratedCodec(final Class<?> clazz) {
+    try {
+      final ClassLoader loader = clazz.getClassLoader();
+      return (BinaryCodec<?>) Class.forName(clazz.getName() + CODEC_SUFFIX, true, loader).newInstance();
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException("No codec for " + clazz.getName()
+          + ", add noodle-compiler to annotation processors or register the codec", e);
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new IllegalArgumentException("Cannot create codec for " + clazz.getName(), e);
+    }
+  }
+
+  private static int indexOf(final int[] tags, final int tag) {
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i] == tag) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static class ValueCodec implements BinaryCodec<Object> {
+
+    private final Class<?> type;
+
+    ValueCodec(final Class<?> type) {
+      this.type = type;
+    }
+
+    @Override
+    public void write(final Object value, final BinaryWriter writer) {
+      writer.writeValue(VALUE_TAG, value);
+    }
+
+    @Override
+    public Object read(final BinaryReader reader) {
+      Object result = null;
+      while (reader.nextField()) {
+        if (reader.tag() == VALUE_TAG) {
+          result = reader.readValue(type);
+        } else {
+          reader.skip();
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package com.noodle.collection;
+
+import java.util.ArrayList;
+
+import static com.noodle.collection.BinaryWriter.BOOLEAN;
+import static com.noodle.collection.BinaryWriter.BYTES;
+import static com.noodle.collection.BinaryWriter.DOUBLE;
+import static com.noodle.collection.BinaryWriter.FLOAT;
+import static com.noodle.collection.BinaryWriter.LIST;
+import static com.noodle.collection.BinaryWriter.NULL;
+import static com.noodle.collection.BinaryWriter.STRING;
+import static com.noodle.collection.BinaryWriter.VARINT;
+
+/**
+ * Reads fields written by the {@link BinaryWriter}:
+ * <pre>
+ * while (reader.nextField()) {
+ *   switch (reader.tag()) {
+ *     case NAME_TAG: item.name = reader.readString(); break;
+ *     default: reader.skip();
+ *   }
+ * }
+ * </pre>
+ * Numbers are converted, if the type of the field has changed since the item was written.
+ */
+public class BinaryReader {
+
+  private final byte[] bytes;
+  private int position;
+  private int tag;
+  private int wireType;
+
+  public BinaryReader(final byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Moves to the next field.
+   *
+   * @return false, if there are no more fields
+   */
+  public boolean nextField() {
+    if (position >= bytes.length) {
+      return false;
+    }
+    readKey();
+    return true;
+  }
+
+  /**
+   * @return tag of the current field, see {@link BinaryWriter#tagOf(String)}
+   */
+  public int tag() {
+    return tag;
+  }
+
+  public long readLong() {
+    switch (wireType) {
+      case VARINT:
+        final long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+      case DOUBLE:
+        return (long) Double.longBitsToDouble(readFixed64());
+      case FLOAT:
+        return (long) Float.intBitsToFloat(readFixed32());
+      default:
+        throw unexpected("number");
+    }
+  }
+
+  public int readInt() {
+    return (int) readLong();
+  }
+
+  public double readDouble() {
+    switch (wireType) {
+      case DOUBLE:
+        return Double.longBitsToDouble(readFixed64());
+      case FLOAT:
+        return Float.intBitsToFloat(readFixed32());
+      default:
+        return readLong();
+    }
+  }
+
+  public float readFloat() {
+    return (float) readDouble();
+  }
+
+  public boolean readBoolean() {
+    if (wireType != BOOLEAN) {
+      throw unexpected("boolean");
+    }
+    return readVarint() != 0;
+  }
+
+  public String readString() {
+    if (wireType == NULL) {
+      return null;
+    }
+    if (wireType != STRING) {
+      throw unexpected("string");
+    }
+    final int length = readLength();
+    final String result = decodeUtf8(position, length);
+    position += length;
+    return result;
+  }
+
+  public byte[] readBytes() {
+    if (wireType != BYTES) {
+      throw unexpected("bytes");
+    }
+    final int length = readLength();
+    final byte[] result = new byte[length];
+    System.arraycopy(bytes, position, result, 0, length);
+    position += length;
+    return result;
+  }
+
+  /**
+   * Reads the list, converting elements to the given type.
+   *
+   * @param elementType one of boxed primitive types or {@link String}
+   */
+  @SuppressWarnings("unchecked")
+  public <E> ArrayList<E> readList(final Class<E> elementType) {
+    if (wireType != LIST) {
+      throw unexpected("list");
+    }
+    final int size = readLength();
+    final ArrayList<E> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      readKey();
+      result.add((E) readValue(elementType));
+    }
+    return result;
+  }
+
+  /**
+   * Reads the current field without knowing its type. Integral numbers are
+   * read as {@link Long}, lists as {@link ArrayList}.
+   */
+  public Object readValue() {
+    switch (wireType) {
+      case VARINT:
+        return readLong();
+      case DOUBLE:
+        return readDouble();
+      case FLOAT:
+        return readFloat();
+      case BOOLEAN:
+        return readBoolean();
+      case STRING:
+        return readString();
+      case BYTES:
+        return readBytes();
+      case LIST:
+        final int size = readLength();
+        final ArrayList<Object> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          readKey();
+          result.add(readValue());
+        }
+        return result;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Skips the current field.
+   */
+  public void skip() {
+    switch (wireType) {
+      case VARINT:
+      case BOOLEAN:
+        readVarint();
+        break;
+      case DOUBLE:
+        position += 8;
+        break;
+      case FLOAT:
+        position += 4;
+        break;
+      case STRING:
+      case BYTES:
+        final int length = readLength();
+        position += length;
+        break;
+      case LIST:
+        final int size = readLength();
+        for (int i = 0; i < size; i++) {
+          readKey();
+          skip();
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Reads the current field as the given type.
+   *
+   * @param type one of boxed primitive types, {@link String} or byte[]
+   */
+  Object readValue(final Class<?> type) {
+    if (wireType == NULL) {
+      return null;
+    } else if (type == Long.class) {
+      return readLong();
+    } else if (type == Integer.class) {
+      return readInt();
+    } else if (type == Short.class) {
+      return (short) readLong();
+    } else if (type == Byte.class) {
+      return (byte) readLong();
+    } else if (type == Double.class) {
+      return readDouble();
+    } else if (type == Float.class) {
+      return readFloat();
+    } else if (type == Boolean.class) {
+      return readBoolean();
+    } else if (type == String.class) {
+      return readString();
+    } else if (type == byte[].class) {
+      return readBytes();
+    }
+    throw new IllegalArgumentException("Unsupported type " + type);
+  }
+
+  private void readKey() {
+    final long key = readVarint();
+    tag = (int) (key >>> 3);
+    wireType = (int) (key & 0x7);
+  }
+
+  private int readLength() {
+    final long length = readVarint();
+    if (length < 0 || length > bytes.length - position) {
+      throw new IllegalStateException("Malformed data at " + position);
+    }
+    return (int) length;
+  }
+
+  private long readVarint() {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = bytes[position++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("Malformed varint at " + position);
+  }
+
+  private long readFixed64() {
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result |= (long) (bytes[position++] & 0xFF) << (8 * i);
+    }
+    return result;
+  }
+
+  private int readFixed32() {
+    int result = 0;
+    for (int i = 0; i < 4; i++) {
+      result |= (bytes[position++] & 0xFF) << (8 * i);
+    }
+    return result;
+  }
+
+  /**
+   * Decodes UTF-8 written by the {@link BinaryWriter} without an intermediate array.
+   */
+  private String decodeUtf8(final int offset, final int length) {
+    final char[] chars = new char[length];
+    int count = 0;
+    int i = offset;
+    final int end = offset + length;
+    while (i < end) {
+      final int b = bytes[i++] & 0xFF;
+      if (b < 0x80) {
+        chars[count++] = (char) b;
+      } else if (b < 0xE0) {
+        chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+      } else if (b < 0xF0) {
+        chars[count++] = (char) (((b & 0x0F) << 12)
+            | ((bytes[i++] & 0x3F) << 6)
+            | (bytes[i++] & 0x3F));
+      } else {
+        final int codePoint = ((b & 0x07) << 18)
+            | ((bytes[i++] & 0x3F) << 12)
+            | ((bytes[i++] & 0x3F) << 6)
+            | (bytes[i++] & 0x3F);
+        count += Character.toChars(codePoint, chars, count);
+      }
+    }
+    return new String(chars, 0, count);
+  }
+
+  private IllegalStateException unexpected(final String expected) {
+    return new IllegalStateException("Field " + tag + " is not a " + expected
+        + ", wire type " + wireType);
+  }
+}
@@ -0,0 +1,228 @@
+package com.noodle.collection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes fields of an item in the format of the {@link BinaryConverter}.
+ * Each field is a varint key of the field tag and the wire type, followed by the value.
+ * Integral numbers are zigzag varints, strings are UTF-8 with the varint length,
+ * lists are the varint size followed by elements with zero tag.
+ */
+public class BinaryWriter {
+
+  // Wire types, the lowest 3 bits of the key.
+  static final int VARINT = 0;
+  static final int DOUBLE = 1;
+  static final int STRING = 2;
+  static final int BOOLEAN = 3;
+  static final int FLOAT = 4;
+  static final int BYTES = 5;
+  static final int LIST = 6;
+  static final int NULL = 7;
+
+  // Tags are 21 bits, so that a key takes 3 bytes at most.
+  private static final int TAG_MASK = 0x1FFFFF;
+
+  private byte[] buffer = new byte[64];
+  private int length;
+
+  /**
+   * Returns the tag of the field. Tags are hashes of field names, so that fields may be
+   * added, removed and reordered without breaking stored items.
+   *
+   * @param fieldName name of the field
+   * @return tag of the field
+   */
+  public static int tagOf(final String fieldName) {
+    final int hash = fieldName.hashCode();
+    return (hash ^ (hash >>> 16)) & TAG_MASK;
+  }
+
+  public void writeLong(final int tag, final long value) {
+    writeKey(tag, VARINT);
+    writeVarint((value << 1) ^ (value >> 63));
+  }
+
+  public void writeDouble(final int tag, final double value) {
+    writeKey(tag, DOUBLE);
+    writeFixed64(Double.doubleToLongBits(value));
+  }
+
+  public void writeFloat(final int tag, final float value) {
+    writeKey(tag, FLOAT);
+    writeFixed32(Float.floatToIntBits(value));
+  }
+
+  public void writeBoolean(final int tag, final boolean value) {
+    writeKey(tag, BOOLEAN);
+    writeVarint(value ? 1 : 0);
+  }
+
+  /**
+   * Writes the string, if it is not null.
+   */
+  public void writeString(final int tag, final String value) {
+    if (value == null) {
+      return;
+    }
+    writeKey(tag, STRING);
+    writeVarint(utf8LengthOf(value));
+    writeUtf8(value);
+  }
+
+  /**
+   * Writes the bytes, if they are not null.
+   */
+  public void writeBytes(final int tag, final byte[] value) {
+    if (value == null) {
+      return;
+    }
+    writeKey(tag, BYTES);
+    writeVarint(value.length);
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, buffer, length, value.length);
+    length += value.length;
+  }
+
+  /**
+   * Writes the list of numbers, booleans, strings or enums, if it is not null.
+   */
+  public void writeList(final int tag, final List<?> list) {
+    if (list == null) {
+      return;
+    }
+    writeKey(tag, LIST);
+    writeVarint(list.size());
+    for (Object element : list) {
+      writeValue(0, element);
+    }
+  }
+
+  /**
+   * @return written bytes
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, length);
+  }
+
+  void reset() {
+    length = 0;
+  }
+
+  int capacity() {
+    return buffer.length;
+  }
+
+  void writeTo(final OutputStream output) throws IOException {
+    output.write(buffer, 0, length);
+  }
+
+  /**
+   * Writes the number, boolean, string, enum or bytes according to its type.
+   */
+  void writeValue(final int tag, final Object value) {
+    if (value == null) {
+      writeKey(tag, NULL);
+    } else if (value instanceof Long || value instanceof Integer
+        || value instanceof Short || value instanceof Byte) {
+      writeLong(tag, ((Number) value).longValue());
+    } else if (value instanceof Double) {
+      writeDouble(tag, (Double) value);
+    } else if (value instanceof Float) {
+      writeFloat(tag, (Float) value);
+    } else if (value instanceof Boolean) {
+      writeBoolean(tag, (Boolean) value);
+    } else if (value instanceof Enum) {
+      writeString(tag, ((Enum) value).name());
+    } else if (value instanceof String || value instanceof Character) {
+      writeString(tag, value.toString());
+    } else if (value instanceof byte[]) {
+      writeBytes(tag, (byte[]) value);
+    } else {
+      throw new IllegalArgumentException("Unsupported value " + value.getClass());
+    }
+  }
+
+  private void writeKey(final int tag, final int wireType) {
+    writeVarint(((long) tag << 3) | wireType);
+  }
+
+  private void writeVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  private void writeFixed64(final long value) {
+    ensureCapacity(8);
+    for (int i = 0; i < 8; i++) {
+      buffer[length++] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private void writeFixed32(final int value) {
+    ensureCapacity(4);
+    for (int i = 0; i < 4; i++) {
+      buffer[length++] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  /**
+   * Encodes the string right into the buffer, without making a byte array of it.
+   */
+  private void writeUtf8(final String value) {
+    ensureCapacity(utf8LengthOf(value));
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xC0 | (c >>> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[length++] = (byte) (0xF0 | (codePoint >>> 18));
+        buffer[length++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        buffer[length++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        final char encoded = c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ? '?' : c;
+        buffer[length++] = (byte) (0xE0 | (encoded >>> 12));
+        buffer[length++] = (byte) (0x80 | ((encoded >>> 6) & 0x3F));
+        buffer[length++] = (byte) (0x80 | (encoded & 0x3F));
+      }
+    }
+  }
+
+  private static int utf8LengthOf(final String value) {
+    int result = 0;
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        result += 1;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        result += 4;
+        i++;
+      } else {
+        result += 3;
+      }
+    }
+    return result;
+  }
+
+  private void ensureCapacity(final int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+  }
+}
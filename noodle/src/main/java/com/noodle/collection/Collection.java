@@ -4,6 +4,9 @@ import com.noodle.Call;
 import com.noodle.Description;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.reactivex.Flowable;
 
 /**
  * Collection is a generic interface for manipulating entities.
@@ -22,8 +25,59 @@ public interface Collection<T> {
 
   List<T> filter(Predicate<T> predicate);
 
+  /**
+   * Same as {@link #getAll()}, but items are decoded on the executor in parallel.
+   *
+   * @param executor executor to decode items on
+   * @return list of all items in the same order as {@link #getAll()} returns
+   */
+  List<T> getAll(Executor executor);
+
+  /**
+   * Same as {@link #filter(Predicate)}, but items are decoded and tested on the executor
+   * in parallel, so the predicate must be thread safe. The calling thread decodes items
+   * as well, so it may run on the same executor.
+   *
+   * @param predicate test function to filter items
+   * @param executor  executor to decode and test items on
+   * @return list of items in the same order as {@link #filter(Predicate)} returns
+   */
+  List<T> filter(Predicate<T> predicate, Executor executor);
+
   T get(long id);
 
+  /**
+   * Returns items, which indexed field has the value, see {@link com.noodle.Indexed}.
+   * Items are found with the index, other items are not read.
+   *
+   * @param field name of the indexed field
+   * @param value value of the field, may be null
+   * @return list of items ordered by id
+   */
+  List<T> findBy(String field, Object value);
+
+  /**
+   * Returns items, which indexed field has the value from the given one inclusive
+   * to the other exclusive, see {@link com.noodle.Indexed}. Items with null value
+   * are not returned. Items are found with the index, other items are not read.
+   *
+   * @param field name of the indexed field
+   * @param from  lower bound of the value, or null for no bound
+   * @param to    upper bound of the value, or null for no bound
+   * @return list of items ordered by value and id
+   */
+  List<T> range(String field, Object from, Object to);
+
+  /**
+   * Starts the {@link Query} with the condition on the given field.
+   * Fields are named as in Java, regardless of their names in encoded items,
+   * e.g. set with {@code @SerializedName}.
+   *
+   * @param field name of the Java field
+   * @return new {@link Query}
+   */
+  Query<T> where(String field);
+
   T put(T t);
 
   List<T> putAll(T... all);
@@ -38,6 +92,36 @@ public interface Collection<T> {
 
   //endregion
 
+  //region Streaming methods
+
+  /**
+   * Returns cursor over all items of this collection, which reads them lazily
+   * in the order they are stored.
+   *
+   * @return new {@link Cursor}
+   */
+  Cursor<T> cursor();
+
+  /**
+   * Returns cursor over items of this collection, that satisfy given predicate.
+   *
+   * @param predicate test function to filter items
+   * @return new {@link Cursor}
+   */
+  Cursor<T> cursor(Predicate<T> predicate);
+
+  /**
+   * Returns Flowable, that emits all items of this collection with a new
+   * {@link Cursor} for each subscriber. Items are read only when they are requested.
+   * <b>Caution: This method is optional and it relies on RxJava (version 2.x.y) to
+   * be provided by the client</b>.
+   *
+   * @return Flowable instance
+   */
+  Flowable<T> toRxFlowable();
+
+  //endregion
+
   //region Async methods
 
   /**
@@ -49,6 +133,25 @@ public interface Collection<T> {
    */
   Call<T> getAsync(long id);
 
+  /**
+   * Async version of {@link #findBy(String, Object)}.
+   *
+   * @param field name of the indexed field
+   * @param value value of the field, may be null
+   * @return {@link Call}, with list of items, that have the value
+   */
+  Call<List<T>> findByAsync(String field, Object value);
+
+  /**
+   * Async version of {@link #range(String, Object, Object)}.
+   *
+   * @param field name of the indexed field
+   * @param from  lower bound of the value, or null for no bound
+   * @param to    upper bound of the value, or null for no bound
+   * @return {@link Call}, with list of items, that have the value within bounds
+   */
+  Call<List<T>> rangeAsync(String field, Object from, Object to);
+
   /**
    * Store the entity in the collection. If it does not have an id,
    * it will be stored as new, and assigned one. Otherwise old entity
@@ -116,6 +219,15 @@ public interface Collection<T> {
    */
   Call<List<T>> filterAsync(Predicate<T> predicate);
 
+  /**
+   * Async version of {@link #filter(Predicate, Executor)}.
+   *
+   * @param predicate test function to filter items
+   * @param executor  executor to decode and test items on
+   * @return {@link Call}, with list of all items, that satisfy given predicate.
+   */
+  Call<List<T>> filterAsync(Predicate<T> predicate, Executor executor);
+
   //endregion
 
   /**
@@ -4,6 +4,7 @@ package com.noodle.collection;
  * Converts between byte[] and actual Java objects and
  * vice versa.
  * @see GsonConverter
+ * @see StreamingConverter
  */
 public interface Converter {
 
@@ -0,0 +1,62 @@
+package com.noodle.collection;
+
+import com.noodle.storage.Record;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily iterates over items of a {@link Collection} in the order they are stored.
+ * Each item is read and decoded only when it is requested, and at most one
+ * decoded item is held by the cursor, so collections of any size can be
+ * processed without loading them whole. Iteration may be stopped at any point.
+ */
+public class Cursor<T> implements Iterator<T> {
+
+  private final Iterator<Record> records;
+  private final Converter converter;
+  private final Class<T> clazz;
+  private final Collection.Predicate<T> predicate;
+
+  // Next item, that satisfies the predicate, or null if not found yet.
+  private T next;
+
+  Cursor(final Iterator<Record> records,
+         final Converter converter,
+         final Class<T> clazz,
+         final Collection.Predicate<T> predicate) {
+    this.records = records;
+    this.converter = converter;
+    this.clazz = clazz;
+    this.predicate = predicate;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && records.hasNext()) {
+      final T t = converter.fromBytes(records.next().getData(), clazz);
+      if (predicate.test(t)) {
+        next = t;
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final T t = next;
+    next = null;
+    return t;
+  }
+
+  /**
+   * Not supported, use {@link Collection#delete(long)} instead.
+   */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,50 @@
+package com.noodle.collection;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Per thread buffer, that items are encoded into before they are put to the storage,
+ * so that the encoded data is not copied into a new array for each put.
+ */
+class EncodeBuffer extends ByteArrayOutputStream {
+
+  private static final int INITIAL_SIZE = 256;
+  // Larger buffers are not kept, so that a single large item does not hold memory.
+  private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<EncodeBuffer> BUFFERS = new ThreadLocal<EncodeBuffer>() {
+    @Override
+    protected EncodeBuffer initialValue() {
+      return new EncodeBuffer();
+    }
+  };
+
+  private EncodeBuffer() {
+    super(INITIAL_SIZE);
+  }
+
+  /**
+   * Returns the empty buffer of the current thread.
+   */
+  static EncodeBuffer acquire() {
+    final EncodeBuffer buffer = BUFFERS.get();
+    buffer.reset();
+    return buffer;
+  }
+
+  /**
+   * Drops the buffer of the current thread, if it grew too large.
+   */
+  static void release(final EncodeBuffer buffer) {
+    if (buffer.buf.length > MAX_RETAINED_SIZE) {
+      BUFFERS.remove();
+    }
+  }
+
+  /**
+   * Returns the backing array, which holds {@link #size()} bytes of data.
+   */
+  byte[] array() {
+    return buf;
+  }
+}
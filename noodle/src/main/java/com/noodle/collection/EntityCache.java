@@ -0,0 +1,189 @@
+package com.noodle.collection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of decoded items of a collection by id.<br/>
+ * Items are spread over segments by id, each with its own lock, so that readers
+ * of different items do not contend. Each segment evicts its least recently used
+ * item, when full, so eviction is LRU only within a segment. Small caches have
+ * a single segment.<br/>
+ * Cached items are shared between callers of {@link Collection#get(long)},
+ * so they should not be modified without putting them back.
+ */
+public class EntityCache<T> {
+
+  private static final int MAX_SEGMENTS = 16;
+  // Segments are not made smaller, so that eviction stays close to LRU.
+  private static final int MIN_SEGMENT_SIZE = 16;
+
+  private final Segment<T>[] segments;
+  private final int mask;
+
+  /**
+   * Creates the cache of the given size.
+   *
+   * @param maxSize maximum number of cached items
+   */
+  @SuppressWarnings("unchecked")
+  public EntityCache(final int maxSize) {
+    int count = 1;
+    while (count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_SIZE <= maxSize) {
+      count *= 2;
+    }
+    this.segments = new Segment[count];
+    this.mask = count - 1;
+    for (int i = 0; i < count; i++) {
+      // Sizes of segments add up to maxSize.
+      segments[i] = new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Returns the cached item and counts a hit or a miss.
+   *
+   * @param id id of the item
+   * @return item or null if not cached
+   */
+  public T get(final long id) {
+    return segmentOf(id).get(id);
+  }
+
+  /**
+   * Returns the current version of the item in the cache. It is taken before reading
+   * the item from storage, and passed to {@link #put(long, Object, long)}.
+   */
+  long version(final long id) {
+    return segmentOf(id).version();
+  }
+
+  /**
+   * Caches the item, unless it was invalidated since the version was taken.
+   */
+  void put(final long id, final T item, final long readVersion) {
+    segmentOf(id).put(id, item, readVersion);
+  }
+
+  /**
+   * Removes the item from the cache.
+   *
+   * @param id id of the item
+   */
+  public void invalidate(final long id) {
+    segmentOf(id).invalidate(id);
+  }
+
+  /**
+   * Removes all items from the cache.
+   */
+  public void invalidateAll() {
+    for (Segment<T> segment : segments) {
+      segment.invalidateAll();
+    }
+  }
+
+  /**
+   * @return number of cached items
+   */
+  public int size() {
+    int result = 0;
+    for (Segment<T> segment : segments) {
+      result += segment.size();
+    }
+    return result;
+  }
+
+  /**
+   * @return number of lookups, that found the item in the cache
+   */
+  public long getHitCount() {
+    long result = 0;
+    for (Segment<T> segment : segments) {
+      result += segment.hitCount();
+    }
+    return result;
+  }
+
+  /**
+   * @return number of lookups, that did not find the item in the cache
+   */
+  public long getMissCount() {
+    long result = 0;
+    for (Segment<T> segment : segments) {
+      result += segment.missCount();
+    }
+    return result;
+  }
+
+  private Segment<T> segmentOf(final long id) {
+    final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return segments[(h ^ (h >>> 16)) & mask];
+  }
+
+  /**
+   * Part of the cache with its own lock.
+   */
+  private static class Segment<T> {
+
+    private final LinkedHashMap<Long, T> items;
+
+    // Incremented on every invalidation, so that items read from storage
+    // before the invalidation are not cached after it.
+    private long version;
+
+    private long hitCount;
+    private long missCount;
+
+    Segment(final int maxSize) {
+      this.items = new LinkedHashMap<Long, T>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, T> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    synchronized T get(final long id) {
+      final T item = items.get(id);
+      if (item != null) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+      return item;
+    }
+
+    synchronized long version() {
+      return version;
+    }
+
+    synchronized void put(final long id, final T item, final long readVersion) {
+      if (readVersion == version) {
+        items.put(id, item);
+      }
+    }
+
+    synchronized void invalidate(final long id) {
+      version++;
+      items.remove(id);
+    }
+
+    synchronized void invalidateAll() {
+      version++;
+      items.clear();
+    }
+
+    synchronized int size() {
+      return items.size();
+    }
+
+    synchronized long hitCount() {
+      return hitCount;
+    }
+
+    synchronized long missCount() {
+      return missCount;
+    }
+  }
+}
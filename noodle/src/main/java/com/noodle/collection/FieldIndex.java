@@ -0,0 +1,215 @@
+package com.noodle.collection;
+
+import com.noodle.Description;
+import com.noodle.storage.BytesWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Index of the items of a collection by the value of a field. Each item has
+ * an empty record in the storage with the key
+ * <pre>[0x02][name length][name][field length][field][value][8 bytes id]</pre>
+ * Values are encoded so that their bytes sort in the same order as values,
+ * so that items with a value or within a range are found by the key range.
+ * The record with the key of just the prefix marks that the index was built.
+ */
+class FieldIndex<T> {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // First byte of every index key, collection keys start with 0x01.
+  private static final byte MARKER = 0x02;
+  private static final int ID_LENGTH = 8;
+
+  // Type of the value is the first byte of it, so that values of different types do not mix.
+  private static final byte NULL = 0x01;
+  private static final byte BOOLEAN = 0x02;
+  private static final byte INTEGRAL = 0x03;
+  private static final byte FLOATING = 0x04;
+  private static final byte STRING = 0x05;
+  private static final byte LAST_TYPE = STRING;
+
+  // Strings end with the terminator, zero bytes inside them are escaped.
+  private static final byte[] STRING_TERMINATOR = {0x00, 0x01};
+  private static final byte[] ESCAPED_ZERO = {0x00, (byte) 0xFF};
+
+  final String field;
+  private final Description<T> description;
+  private final Class<?> type;
+  private final byte[] prefix;
+
+  FieldIndex(final Description<T> description, final String field) {
+    this.description = description;
+    this.field = field;
+    this.type = description.typeOfIndexedField(field);
+    this.prefix = prefixOf(description.getCollectionName(), field);
+  }
+
+  /**
+   * Returns the key of the record, that marks the index as built.
+   * Keys of all entries of the index start with it.
+   */
+  byte[] markerKey() {
+    return prefix;
+  }
+
+  /**
+   * Returns the key of the index entry of the item.
+   */
+  byte[] keyOf(final T t, final long id) {
+    final byte[] value = valueKeyOf(t);
+    final byte[] key = Arrays.copyOf(value, value.length + ID_LENGTH);
+    ByteBuffer.wrap(key, value.length, ID_LENGTH).putLong(id);
+    return key;
+  }
+
+  /**
+   * Returns the prefix of the keys of the items with the value.
+   */
+  byte[] prefixOf(final Object value) {
+    return concat(prefix, encode(value, type));
+  }
+
+  /**
+   * Returns the lowest key of the items with the value not less than given.
+   *
+   * @param from value or null for the lowest non null value
+   */
+  byte[] lowerBoundOf(final Object from) {
+    return from != null
+        ? prefixOf(from)
+        : concat(prefix, new byte[]{NULL + 1});
+  }
+
+  /**
+   * Returns the key, that keys of the items with the value less than given are below.
+   *
+   * @param to value or null for the key after all values
+   */
+  byte[] upperBoundOf(final Object to) {
+    return to != null
+        ? prefixOf(to)
+        : concat(prefix, new byte[]{LAST_TYPE + 1});
+  }
+
+  /**
+   * Checks whether the indexed value of the item is within bounds. Entries of the index
+   * may outlive the value of the item, if it was put concurrently, so found items are checked.
+   *
+   * @param lower lower bound, inclusive
+   * @param upper upper bound, exclusive
+   */
+  boolean isWithin(final T t, final byte[] lower, final byte[] upper) {
+    final BytesWrapper value = new BytesWrapper(valueKeyOf(t));
+    return value.compareTo(new BytesWrapper(lower)) >= 0
+        && value.compareTo(new BytesWrapper(upper)) < 0;
+  }
+
+  /**
+   * Checks whether the indexed value of the item is the given one.
+   *
+   * @param valuePrefix prefix of the keys of the value, see {@link #prefixOf(Object)}
+   */
+  boolean hasValue(final T t, final byte[] valuePrefix) {
+    return Arrays.equals(valueKeyOf(t), valuePrefix);
+  }
+
+  static long idOf(final byte[] key) {
+    return ByteBuffer.wrap(key, key.length - ID_LENGTH, ID_LENGTH).getLong();
+  }
+
+  /**
+   * Checks whether the key of this index is not the marker key.
+   */
+  boolean isEntryKey(final byte[] key) {
+    return key.length > prefix.length;
+  }
+
+  private byte[] valueKeyOf(final T t) {
+    return prefixOf(description.valueOfIndexedField(t, field));
+  }
+
+  private static byte[] prefixOf(final String collection, final String field) {
+    final byte[] name = collection.getBytes(UTF_8);
+    final byte[] fieldName = field.getBytes(UTF_8);
+    if (name.length > 255 || fieldName.length > 255) {
+      throw new IllegalArgumentException("Name is too long: " + collection + "." + field);
+    }
+
+    return ByteBuffer.allocate(3 + name.length + fieldName.length)
+        .put(MARKER)
+        .put((byte) name.length)
+        .put(name)
+        .put((byte) fieldName.length)
+        .put(fieldName)
+        .array();
+  }
+
+  /**
+   * Encodes the value according to the type of the field, so that integral
+   * and floating point values are found with numbers of any type.
+   */
+  static byte[] encode(final Object value, final Class<?> type) {
+    if (value == null) {
+      return new byte[]{NULL};
+    }
+
+    final Class<?> valueType = type == Object.class ? value.getClass() : type;
+    if (isIntegral(valueType)) {
+      // Sign bit is flipped, so that negative numbers come first.
+      return ByteBuffer.allocate(9)
+          .put(INTEGRAL)
+          .putLong(toNumber(value).longValue() ^ Long.MIN_VALUE)
+          .array();
+    }
+    if (valueType == Double.class || valueType == Double.TYPE
+        || valueType == Float.class || valueType == Float.TYPE) {
+      // Sign bit is flipped for positive numbers, and all bits for negative ones.
+      final long bits = Double.doubleToLongBits(toNumber(value).doubleValue());
+      return ByteBuffer.allocate(9)
+          .put(FLOATING)
+          .putLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE)
+          .array();
+    }
+    if (valueType == Boolean.class || valueType == Boolean.TYPE) {
+      return new byte[]{BOOLEAN, (byte) (Boolean.TRUE.equals(value) ? 1 : 0)};
+    }
+
+    final String string = value instanceof Enum ? ((Enum) value).name() : value.toString();
+    final byte[] bytes = string.getBytes(UTF_8);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length + 3);
+    output.write(STRING);
+    for (byte b : bytes) {
+      if (b == 0) {
+        output.write(ESCAPED_ZERO, 0, ESCAPED_ZERO.length);
+      } else {
+        output.write(b);
+      }
+    }
+    output.write(STRING_TERMINATOR, 0, STRING_TERMINATOR.length);
+    return output.toByteArray();
+  }
+
+  private static boolean isIntegral(final Class<?> type) {
+    return type == Long.class || type == Long.TYPE
+        || type == Integer.class || type == Integer.TYPE
+        || type == Short.class || type == Short.TYPE
+        || type == Byte.class || type == Byte.TYPE;
+  }
+
+  private static Number toNumber(final Object value) {
+    if (!(value instanceof Number)) {
+      throw new IllegalArgumentException("Value " + value + " is not a number");
+    }
+    return (Number) value;
+  }
+
+  private static byte[] concat(final byte[] first, final byte[] second) {
+    final byte[] result = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+}
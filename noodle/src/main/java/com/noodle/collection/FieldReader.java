@@ -0,0 +1,30 @@
+package com.noodle.collection;
+
+/**
+ * Optional interface of a {@link Converter}, that reads values of the top level
+ * fields of an encoded item without decoding all of it. Items are filtered
+ * by a {@link Query} with it, so only matching items are decoded.
+ */
+public interface FieldReader {
+
+  /**
+   * Reads values of the fields from the encoded item. Numbers are read
+   * as any {@link Number}, strings as {@link String} and booleans
+   * as {@link Boolean}. Values of absent fields are null.
+   *
+   * @param bytes  encoded item
+   * @param fields encoded names of the fields to read, see {@link #encodedNamesOf(Class, String[])}
+   * @param values destination for the values, in the order of fields
+   */
+  void readFields(byte[] bytes, String[] fields, Object[] values);
+
+  /**
+   * Returns names, that the fields of the class have in encoded items.
+   *
+   * @param clazz  class of items
+   * @param fields names of the Java fields
+   * @return encoded names of the fields, in the order of fields, or nulls
+   * for fields, which are never encoded
+   */
+  String[] encodedNamesOf(Class<?> clazz, String[] fields);
+}
@@ -1,25 +1,192 @@
 package com.noodle.collection;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
- * {@link Converter} based on {@link Gson}.
+ * {@link Converter} based on {@link Gson}. Items are written with {@link JsonWriter}
+ * and read with {@link JsonReader} as UTF-8, without an intermediate JSON string.
+ * Fields of encoded items are read with the streaming reader, which skips other
+ * fields without parsing.<br/>
+ * Earlier versions encoded items in the platform charset. It is UTF-8 on Android, but
+ * may differ on other JVMs, so items, that are not valid UTF-8, are decoded with it.
  */
-public class GsonConverter implements Converter {
+public class GsonConverter implements StreamingConverter, FieldReader {
+
+  private static final int BUFFER_SIZE = 256;
+  // Larger buffers are not kept, so that a single large item does not hold memory.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<Utf8Writer> BUFFERS = new ThreadLocal<Utf8Writer>() {
+    @Override
+    protected Utf8Writer initialValue() {
+      return new Utf8Writer(BUFFER_SIZE);
+    }
+  };
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
 
   private Gson gson;
+  // Charset of items written by earlier versions, or null if it is UTF-8.
+  private final Charset legacyCharset;
 
   public GsonConverter(final Gson gson) {
+    this(gson, Charset.defaultCharset());
+  }
+
+  GsonConverter(final Gson gson, final Charset legacyCharset) {
     this.gson = gson;
+    this.legacyCharset = UTF_8.equals(legacyCharset) ? null : legacyCharset;
   }
 
   @Override
   public <T> byte[] toBytes(final T t) {
-    return gson.toJson(t).getBytes();
+    final Utf8Writer buffer = BUFFERS.get();
+    try {
+      writeJson(t, buffer);
+      return buffer.toByteArray();
+    } finally {
+      release(buffer);
+    }
   }
 
   @Override
   public <T> T fromBytes(final byte[] bytes, final Class<T> clazz) {
-    return gson.fromJson(new String(bytes), clazz);
+    final Utf8Reader reader = new Utf8Reader(bytes);
+    final T result = gson.fromJson(new JsonReader(reader), clazz);
+    if (reader.isMalformed() && legacyCharset != null) {
+      return gson.fromJson(new String(bytes, legacyCharset), clazz);
+    }
+    return result;
+  }
+
+  @Override
+  public <T> void write(final T t, final OutputStream output) throws IOException {
+    final Utf8Writer buffer = BUFFERS.get();
+    try {
+      writeJson(t, buffer);
+      buffer.writeTo(output);
+    } finally {
+      release(buffer);
+    }
+  }
+
+  @Override
+  public void readFields(final byte[] bytes, final String[] fields, final Object[] values) {
+    final Utf8Reader utf8Reader = new Utf8Reader(bytes);
+    readFields(utf8Reader, fields, values);
+    if (utf8Reader.isMalformed() && legacyCharset != null) {
+      readFields(new StringReader(new String(bytes, legacyCharset)), fields, values);
+    }
+  }
+
+  private void readFields(final Reader input, final String[] fields, final Object[] values) {
+    Arrays.fill(values, null);
+    final JsonReader reader = new JsonReader(input);
+    reader.setLenient(true);
+    try {
+      reader.beginObject();
+      int found = 0;
+      while (found < fields.length && reader.hasNext()) {
+        final int index = indexOf(fields, reader.nextName());
+        if (index < 0) {
+          reader.skipValue();
+        } else {
+          values[index] = readValue(reader);
+          found++;
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns JSON names of the fields, set with {@link SerializedName}, or null
+   * for fields, that the class does not have. Other field naming policies
+   * of Gson are not taken into account.
+   */
+  @Override
+  public String[] encodedNamesOf(final Class<?> clazz, final String[] fields) {
+    final String[] result = new String[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      final Field field = fieldOf(clazz, fields[i]);
+      if (field == null) {
+        continue;
+      }
+      final SerializedName name = field.getAnnotation(SerializedName.class);
+      result[i] = name != null ? name.value() : fields[i];
+    }
+    return result;
+  }
+
+  private static Field fieldOf(final Class<?> clazz, final String name) {
+    for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+      try {
+        return type.getDeclaredField(name);
+      } catch (NoSuchFieldException e) {
+        // Look in the superclass.
+      }
+    }
+    return null;
+  }
+
+  private <T> void writeJson(final T t, final Utf8Writer buffer) {
+    buffer.reset();
+    final JsonWriter writer = new JsonWriter(buffer);
+    if (t == null) {
+      gson.toJson(null, writer);
+    } else {
+      gson.toJson(t, t.getClass(), writer);
+    }
+  }
+
+  private static void release(final Utf8Writer buffer) {
+    if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      BUFFERS.remove();
+    }
+  }
+
+  private static int indexOf(final String[] fields, final String name) {
+    for (int i = 0; i < fields.length; i++) {
+      if (name.equals(fields[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private Object readValue(final JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case NUMBER:
+        final String number = reader.nextString();
+        try {
+          return new BigDecimal(number);
+        } catch (NumberFormatException e) {
+          // NaN and infinities.
+          return Double.valueOf(number);
+        }
+      case STRING:
+        return reader.nextString();
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        return gson.fromJson(reader, JsonElement.class);
+    }
   }
 }
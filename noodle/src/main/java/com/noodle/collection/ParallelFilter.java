@@ -0,0 +1,182 @@
+package com.noodle.collection;
+
+import com.noodle.storage.Record;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes and tests items of a collection on the executor in parallel.
+ * Records are read by the calling thread in file order and handed over in chunks,
+ * and results of the chunks are joined in the same order, so the result does not
+ * depend on scheduling and equals the result of the sequential filter.<br/>
+ * The calling thread never waits for the executor to pick a chunk up: chunks, that
+ * do not fit into the pending limit, and chunks, that are still queued when records
+ * run out, are decoded by the calling thread. So the filter completes, even if it is
+ * called from a busy or single threaded executor, which it uses itself.
+ */
+class ParallelFilter<T> {
+
+  // Number of records decoded by a single task.
+  static final int CHUNK_SIZE = 256;
+  // Number of chunks queued on the executor at most, so that records do not pile up in memory.
+  static final int MAX_PENDING_CHUNKS = 16;
+
+  private final Converter converter;
+  private final Class<T> clazz;
+  private final Collection.Predicate<T> predicate;
+  private final Executor executor;
+
+  private final Semaphore pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+  // Chunks in the order of records, only accessed by the calling thread.
+  private final ArrayList<Chunk> chunks = new ArrayList<>();
+  // Guarded by this.
+  private int finishedChunks;
+  private Throwable error;
+
+  ParallelFilter(final Converter converter,
+                 final Class<T> clazz,
+                 final Collection.Predicate<T> predicate,
+                 final Executor executor) {
+    this.converter = converter;
+    this.clazz = clazz;
+    this.predicate = predicate;
+    this.executor = executor;
+  }
+
+  /**
+   * Filters the records and waits for all tasks to finish.
+   *
+   * @param records records of the collection
+   * @return matched items in the order of records
+   */
+  List<T> filter(final Iterator<Record> records) {
+    ArrayList<Record> chunk = new ArrayList<>(CHUNK_SIZE);
+    try {
+      while (records.hasNext() && !hasFailed()) {
+        chunk.add(records.next());
+        if (chunk.size() == CHUNK_SIZE) {
+          submit(chunk);
+          chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+      }
+      if (!chunk.isEmpty() && !hasFailed()) {
+        submit(chunk);
+      }
+    } finally {
+      // Chunks, that are not taken by the executor yet, are decoded here.
+      for (Chunk pending : chunks) {
+        pending.run();
+      }
+      awaitChunks();
+    }
+
+    synchronized (this) {
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else if (error != null) {
+        throw new RuntimeException(error);
+      }
+
+      final ArrayList<T> matched = new ArrayList<>();
+      for (Chunk finished : chunks) {
+        matched.addAll(finished.items);
+      }
+      return matched;
+    }
+  }
+
+  private void submit(final List<Record> records) {
+    final Chunk chunk = new Chunk(records);
+    chunks.add(chunk);
+
+    if (!pendingChunks.tryAcquire()) {
+      // Executor is behind, possibly because it runs the calling thread.
+      chunk.run();
+      return;
+    }
+    chunk.queued = true;
+    try {
+      executor.execute(chunk);
+    } catch (RuntimeException e) {
+      // Rejected by the executor, the chunk is decoded by the calling thread.
+      chunk.run();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for chunks, that are being decoded by other threads. The wait is interruptible.
+   */
+  private synchronized void awaitChunks() {
+    try {
+      while (finishedChunks < chunks.size()) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private synchronized void onError(final Throwable e) {
+    if (error == null) {
+      error = e;
+    }
+  }
+
+  private synchronized boolean hasFailed() {
+    return error != null;
+  }
+
+  /**
+   * Records, that are decoded once, by the executor or by the calling thread.
+   */
+  private class Chunk implements Runnable {
+
+    final List<Record> records;
+    final AtomicBoolean claimed = new AtomicBoolean(false);
+    // Whether the chunk holds a permit of pending chunks, set before it is queued.
+    volatile boolean queued;
+    // Matched items, read after the chunk is finished.
+    List<T> items;
+
+    Chunk(final List<Record> records) {
+      this.records = records;
+    }
+
+    @Override
+    public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+
+      try {
+        final ArrayList<T> matched = new ArrayList<>();
+        if (!hasFailed()) {
+          for (Record record : records) {
+            final T t = converter.fromBytes(record.getData(), clazz);
+            if (predicate.test(t)) {
+              matched.add(t);
+            }
+          }
+        }
+        items = matched;
+      } catch (Throwable e) {
+        onError(e);
+      } finally {
+        if (queued) {
+          pendingChunks.release();
+        }
+        synchronized (ParallelFilter.this) {
+          finishedChunks++;
+          ParallelFilter.this.notifyAll();
+        }
+      }
+    }
+  }
+}
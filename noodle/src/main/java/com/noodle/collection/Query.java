@@ -0,0 +1,383 @@
+package com.noodle.collection;
+
+import com.noodle.Call;
+import com.noodle.storage.Record;
+import com.noodle.storage.Storage;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Declarative query of the items of a collection by the values of their top level fields:
+ * <pre>collection.where("author").eq("X").and("year").gt(2000).limit(10).find()</pre>
+ * If the {@link Converter} is a {@link FieldReader}, conditions are checked against
+ * encoded items, so that only matching items are decoded. Otherwise each item is decoded,
+ * and its fields are read with reflection.<br/>
+ * Fields are named as in Java in both cases, also if the converter writes them with
+ * other names, e.g. with {@code @SerializedName}.<br/>
+ * Numbers are compared by value regardless of their type, enums by name.
+ * Only equality matches null values.
+ */
+public class Query<T> {
+
+  private enum Operator {
+    EQ, LT, LE, GT, GE
+  }
+
+  private final Storage storage;
+  private final String collection;
+  private final Converter converter;
+  private final Class<T> clazz;
+
+  // Indices of the fields in the array of read values.
+  private final LinkedHashMap<String, Integer> fields = new LinkedHashMap<>();
+  private final ArrayList<Condition> conditions = new ArrayList<>();
+  private String currentField;
+  private int orderIndex = -1;
+  private boolean descending;
+  private int offset;
+  private int limit = Integer.MAX_VALUE;
+
+  private Field[] reflectedFields;
+
+  Query(final Storage storage,
+        final String collection,
+        final Converter converter,
+        final Class<T> clazz) {
+    this.storage = storage;
+    this.collection = collection;
+    this.converter = converter;
+    this.clazz = clazz;
+  }
+
+  /**
+   * Sets the field, that the next condition is applied to.
+   *
+   * @param field name of the field
+   * @return this query
+   */
+  public Query<T> and(final String field) {
+    this.currentField = field;
+    return this;
+  }
+
+  /**
+   * Matches items, which field equals the value.
+   *
+   * @param value value to compare with, may be null
+   * @return this query
+   */
+  public Query<T> eq(final Object value) {
+    return addCondition(Operator.EQ, value);
+  }
+
+  /**
+   * Matches items, which field is less than the value.
+   *
+   * @param value value to compare with
+   * @return this query
+   */
+  public Query<T> lt(final Object value) {
+    return addCondition(Operator.LT, value);
+  }
+
+  /**
+   * Matches items, which field is less than or equal to the value.
+   *
+   * @param value value to compare with
+   * @return this query
+   */
+  public Query<T> le(final Object value) {
+    return addCondition(Operator.LE, value);
+  }
+
+  /**
+   * Matches items, which field is greater than the value.
+   *
+   * @param value value to compare with
+   * @return this query
+   */
+  public Query<T> gt(final Object value) {
+    return addCondition(Operator.GT, value);
+  }
+
+  /**
+   * Matches items, which field is greater than or equal to the value.
+   *
+   * @param value value to compare with
+   * @return this query
+   */
+  public Query<T> ge(final Object value) {
+    return addCondition(Operator.GE, value);
+  }
+
+  /**
+   * Orders items by the field ascending, null values come first.
+   * By default items are in the order they are stored.
+   *
+   * @param field name of the field
+   * @return this query
+   */
+  public Query<T> orderBy(final String field) {
+    this.orderIndex = indexOf(field);
+    this.descending = false;
+    return this;
+  }
+
+  /**
+   * Orders items by the field descending, null values come last.
+   *
+   * @param field name of the field
+   * @return this query
+   */
+  public Query<T> orderByDescending(final String field) {
+    this.orderIndex = indexOf(field);
+    this.descending = true;
+    return this;
+  }
+
+  /**
+   * Skips the given number of matched items.
+   *
+   * @param offset number of items to skip
+   * @return this query
+   */
+  public Query<T> offset(final int offset) {
+    this.offset = offset;
+    return this;
+  }
+
+  /**
+   * Limits the number of returned items. Without ordering,
+   * the collection is not read further, once enough items are found.
+   *
+   * @param limit maximum number of items
+   * @return this query
+   */
+  public Query<T> limit(final int limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * Runs the query.
+   *
+   * @return list of matched items
+   */
+  public List<T> find() {
+    final String[] names = fields.keySet().toArray(new String[fields.size()]);
+    final Object[] values = new Object[names.length];
+    final FieldReader fieldReader = converter instanceof FieldReader ? (FieldReader) converter : null;
+    final String[] encodedNames = fieldReader != null ? fieldReader.encodedNamesOf(clazz, names) : null;
+    final ArrayList<T> result = new ArrayList<>();
+    // Matched items are sorted before they are decoded, if the order is set.
+    final ArrayList<Match<T>> matches = new ArrayList<>();
+    int skipped = 0;
+
+    final Iterator<Record> records = storage.iterate(collection);
+    while (records.hasNext() && result.size() < limit) {
+      final byte[] data = records.next().getData();
+      T item = null;
+      if (fieldReader != null) {
+        fieldReader.readFields(data, encodedNames, values);
+      } else {
+        item = converter.fromBytes(data, clazz);
+        readFields(item, names, values);
+      }
+
+      if (!matches(values)) {
+        continue;
+      }
+      if (orderIndex >= 0) {
+        matches.add(new Match<>(normalize(values[orderIndex]), data, item));
+      } else if (skipped < offset) {
+        skipped++;
+      } else {
+        result.add(item != null ? item : converter.fromBytes(data, clazz));
+      }
+    }
+
+    if (orderIndex >= 0) {
+      Collections.sort(matches, new Comparator<Match<T>>() {
+        @Override
+        public int compare(final Match<T> lhs, final Match<T> rhs) {
+          final int order = compareOrdered(lhs.orderValue, rhs.orderValue);
+          return descending ? -order : order;
+        }
+      });
+      final int to = (int) Math.min((long) offset + limit, matches.size());
+      for (int i = offset; i < to; i++) {
+        final Match<T> match = matches.get(i);
+        result.add(match.item != null ? match.item : converter.fromBytes(match.data, clazz));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Runs the query asynchronously.
+   *
+   * @return {@link Call}, with list of matched items
+   */
+  public Call<List<T>> findAsync() {
+    return new Call<>(new Callable<List<T>>() {
+      @Override
+      public List<T> call() {
+        return find();
+      }
+    });
+  }
+
+  private Query<T> addCondition(final Operator operator, final Object value) {
+    if (currentField == null) {
+      throw new IllegalStateException("Field of the condition is not set");
+    }
+    conditions.add(new Condition(indexOf(currentField), operator, normalize(value)));
+    return this;
+  }
+
+  private int indexOf(final String field) {
+    Integer index = fields.get(field);
+    if (index == null) {
+      index = fields.size();
+      fields.put(field, index);
+      reflectedFields = null;
+    }
+    return index;
+  }
+
+  private boolean matches(final Object[] values) {
+    for (Condition condition : conditions) {
+      if (!condition.test(normalize(values[condition.index]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void readFields(final T item, final String[] names, final Object[] values) {
+    if (reflectedFields == null) {
+      reflectedFields = new Field[names.length];
+      for (int i = 0; i < names.length; i++) {
+        reflectedFields[i] = findField(names[i]);
+      }
+    }
+
+    try {
+      for (int i = 0; i < names.length; i++) {
+        values[i] = reflectedFields[i] != null ? reflectedFields[i].get(item) : null;
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Field findField(final String name) {
+    for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+      try {
+        final Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+      } catch (NoSuchFieldException e) {
+        // Look in the superclass.
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Makes values of different types comparable with each other.
+   */
+  private static Object normalize(final Object value) {
+    if (value instanceof BigDecimal) {
+      return value;
+    }
+    if (value instanceof Number) {
+      try {
+        return new BigDecimal(value.toString());
+      } catch (NumberFormatException e) {
+        // NaN and infinities.
+        return value;
+      }
+    }
+    if (value instanceof Enum) {
+      return ((Enum) value).name();
+    }
+    if (value instanceof Character) {
+      return value.toString();
+    }
+    return value;
+  }
+
+  /**
+   * Compares values for ordering, values of different types are considered equal.
+   */
+  @SuppressWarnings("unchecked")
+  private static int compareOrdered(final Object lhs, final Object rhs) {
+    if (lhs == null || rhs == null) {
+      return lhs == rhs ? 0 : lhs == null ? -1 : 1;
+    }
+    if (lhs.getClass() != rhs.getClass() || !(lhs instanceof Comparable)) {
+      return 0;
+    }
+    return ((Comparable<Object>) lhs).compareTo(rhs);
+  }
+
+  private static class Condition {
+
+    final int index;
+    final Operator operator;
+    final Object operand;
+
+    Condition(final int index, final Operator operator, final Object operand) {
+      this.index = index;
+      this.operator = operator;
+      this.operand = operand;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean test(final Object value) {
+      if (value == null || operand == null) {
+        return operator == Operator.EQ && value == operand;
+      }
+      if (value.getClass() != operand.getClass() || !(value instanceof Comparable)) {
+        return operator == Operator.EQ && value.equals(operand);
+      }
+
+      final int result = ((Comparable<Object>) value).compareTo(operand);
+      switch (operator) {
+        case EQ:
+          return result == 0;
+        case LT:
+          return result < 0;
+        case LE:
+          return result <= 0;
+        case GT:
+          return result > 0;
+        default:
+          return result >= 0;
+      }
+    }
+  }
+
+  private static class Match<T> {
+
+    final Object orderValue;
+    final byte[] data;
+    // Decoded item, if it was decoded to read the fields.
+    final T item;
+
+    Match(final Object orderValue, final byte[] data, final T item) {
+      this.orderValue = orderValue;
+      this.data = data;
+      this.item = item;
+    }
+  }
+}
@@ -2,29 +2,54 @@ package com.noodle.collection;
 
 import com.noodle.Call;
 import com.noodle.Description;
+import com.noodle.storage.Batch;
+import com.noodle.storage.CollectionKey;
 import com.noodle.storage.Record;
 import com.noodle.storage.Storage;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.functions.BiConsumer;
 
 /**
- * Primary {@link Collection} implementation.
+ * Primary {@link Collection} implementation. Items got by id may be kept
+ * in the {@link EntityCache}, so that hot items are not read and decoded
+ * on every access. Each indexed field has the {@link FieldIndex}, which is
+ * updated in the same batch with the items. Writes of indexed collections
+ * are serialized, see {@link #lockWrites()}.
  */
 public class StoredConvertedCollection<T> implements Collection<T> {
 
+  // Index records have no data, all of it is in the key.
+  private static final byte[] NO_DATA = new byte[0];
+
   final Class<T> clazz;
   final Description<T> description;
   final Converter converter;
   final Storage storage;
+  // Common prefix of all keys in this collection.
+  final byte[] keyPrefix;
+  // Null if caching is off.
+  final EntityCache<T> cache;
+  // Indexes by field name, see Description#getIndexedFields().
+  final HashMap<String, FieldIndex<T>> indexes = new HashMap<>();
 
   final AtomicLong sequenceId = new AtomicLong(0L);
 
+  // Held from staging of index changes until the batch is written.
+  private final ReentrantLock writeLock = new ReentrantLock();
+
   final Predicate<T> every = new Predicate<T>() {
     @Override
     public boolean test(final T t) {
@@ -36,18 +61,33 @@ public class StoredConvertedCollection<T> implements Collection<T> {
                                    final Description<T> description,
                                    final Converter converter,
                                    final Storage storage) {
+    this(clazz, description, converter, storage, 0);
+  }
+
+  /**
+   * Creates the collection, that caches items got by id.
+   *
+   * @param cacheSize maximum number of cached items, 0 turns caching off
+   */
+  public StoredConvertedCollection(final Class<T> clazz,
+                                   final Description<T> description,
+                                   final Converter converter,
+                                   final Storage storage,
+                                   final int cacheSize) {
     this.clazz = clazz;
     this.description = description;
     this.converter = converter;
     this.storage = storage;
-
-    for (byte[] key : getAllCollectionKeys()) {
-      final String idStr = new String(key).split(":")[1];
-      final Long id = Long.valueOf(idStr);
-      if (sequenceId.get() < id) {
-        sequenceId.set(id);
-      }
+    this.cache = cacheSize > 0 ? new EntityCache<T>(cacheSize) : null;
+    this.keyPrefix = CollectionKey.prefixOf(description.getCollectionName());
+
+    migrateLegacyKeys();
+    for (String field : description.getIndexedFields()) {
+      final FieldIndex<T> index = new FieldIndex<>(description, field);
+      indexes.put(field, index);
+      buildIndex(index);
     }
+    sequenceId.set(storage.maxId(description.getCollectionName()));
   }
 
 
@@ -63,10 +103,82 @@ public class StoredConvertedCollection<T> implements Collection<T> {
     return findItemsWith(predicate);
   }
 
+  @Override
+  public List<T> getAll(final Executor executor) {
+    return filter(every, executor);
+  }
+
+  @Override
+  public List<T> filter(final Predicate<T> predicate, final Executor executor) {
+    return new ParallelFilter<>(converter, clazz, predicate, executor)
+        .filter(storage.iterate(description.getCollectionName()));
+  }
+
   @Override
   public T get(final long id) {
-    final byte[] key = getKey(id);
-    final Record record = storage.get(key);
+    if (cache == null) {
+      return readItem(id);
+    }
+
+    final T cached = cache.get(id);
+    if (cached != null) {
+      return cached;
+    }
+
+    final long version = cache.version(id);
+    final T item = readItem(id);
+    if (item != null) {
+      cache.put(id, item, version);
+    }
+    return item;
+  }
+
+  @Override
+  public List<T> findBy(final String field, final Object value) {
+    final FieldIndex<T> index = indexOf(field);
+    final byte[] valuePrefix = index.prefixOf(value);
+
+    final ArrayList<T> result = new ArrayList<>();
+    for (byte[] key : storage.prefixedWith(valuePrefix)) {
+      final T t = get(FieldIndex.idOf(key));
+      if (t != null && index.hasValue(t, valuePrefix)) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public List<T> range(final String field, final Object from, final Object to) {
+    final FieldIndex<T> index = indexOf(field);
+    final byte[] lower = index.lowerBoundOf(from);
+    final byte[] upper = index.upperBoundOf(to);
+
+    final ArrayList<T> result = new ArrayList<>();
+    for (byte[] key : storage.keysInRange(lower, upper)) {
+      final T t = get(FieldIndex.idOf(key));
+      if (t != null && index.isWithin(t, lower, upper)) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Query<T> where(final String field) {
+    return new Query<>(storage, description.getCollectionName(), converter, clazz).and(field);
+  }
+
+  private FieldIndex<T> indexOf(final String field) {
+    final FieldIndex<T> index = indexes.get(field);
+    if (index == null) {
+      throw new IllegalArgumentException("Field " + field + " is not indexed");
+    }
+    return index;
+  }
+
+  private T readItem(final long id) {
+    final Record record = storage.get(description.getCollectionName(), id);
     if (record == null) {
       return null;
     }
@@ -91,9 +203,30 @@ public class StoredConvertedCollection<T> implements Collection<T> {
     }
 
     final ArrayList<T> list = new ArrayList<>();
-    for (T t : all) {
-      putItemToCollection(t);
-      list.add(t);
+    if (indexes.isEmpty()) {
+      final ArrayList<Record> records = new ArrayList<>();
+      for (T t : all) {
+        t = withId(t);
+        list.add(t);
+        records.add(toRecord(description.idOfItem(t), t));
+      }
+      storage.putAll(records);
+    } else {
+      final Batch batch = new Batch();
+      lockWrites();
+      try {
+        for (T t : all) {
+          list.add(stagePut(batch, t));
+        }
+        storage.write(batch);
+      } finally {
+        unlockWrites();
+      }
+    }
+    if (cache != null) {
+      for (T t : list) {
+        cache.invalidate(description.idOfItem(t));
+      }
     }
 
     return list;
@@ -101,27 +234,186 @@ public class StoredConvertedCollection<T> implements Collection<T> {
 
   @Override
   public T delete(final long id) {
-    final byte[] key = getKey(id);
-    final Record removed = storage.remove(key);
-    return removed != null
-        ? converter.fromBytes(removed.getData(), clazz)
-        : null;
+    final T removed;
+    if (indexes.isEmpty()) {
+      final Record record = storage.remove(getKey(id));
+      removed = record != null
+          ? converter.fromBytes(record.getData(), clazz)
+          : null;
+    } else {
+      final Batch batch = new Batch();
+      lockWrites();
+      try {
+        removed = stageIndexRemoval(batch, id);
+        batch.remove(getKey(id));
+        storage.write(batch);
+      } finally {
+        unlockWrites();
+      }
+    }
+    if (cache != null) {
+      cache.invalidate(id);
+    }
+    return removed;
   }
 
   @Override
   public boolean clear() {
-    for (byte[] key : getAllCollectionKeys()) {
-      storage.remove(key);
+    final Batch batch = new Batch();
+    lockWrites();
+    try {
+      for (byte[] key : getAllCollectionKeys()) {
+        batch.remove(key);
+      }
+      for (FieldIndex<T> index : indexes.values()) {
+        for (byte[] key : storage.prefixedWith(index.markerKey())) {
+          if (index.isEntryKey(key)) {
+            batch.remove(key);
+          }
+        }
+      }
+      storage.write(batch);
+    } finally {
+      unlockWrites();
+    }
+    if (cache != null) {
+      cache.invalidateAll();
     }
     return true;
   }
 
+  /**
+   * Locks writes of items, if the collection has indexes. Index entries of the
+   * current version of the item are removed, when it is put or deleted, so writes
+   * are serialized from staging until the batch is written. Stages are made under
+   * the lock, which is released with {@link #unlockWrites()}.
+   */
+  public void lockWrites() {
+    if (!indexes.isEmpty()) {
+      writeLock.lock();
+    }
+  }
+
+  /**
+   * Unlocks writes locked with {@link #lockWrites()}.
+   */
+  public void unlockWrites() {
+    if (!indexes.isEmpty()) {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Assigns id to the item, if it has none, and stages it to be put with the batch.
+   * Writes should be locked until the batch is written, see {@link #lockWrites()}.
+   *
+   * @param batch batch to stage with
+   * @param t     item to put
+   * @return the same item
+   */
+  public T stagePut(final Batch batch, T t) {
+    t = withId(t);
+    final long id = description.idOfItem(t);
+    stageIndexRemoval(batch, id);
+    batch.put(toRecord(id, t));
+    for (FieldIndex<T> index : indexes.values()) {
+      batch.put(new Record(index.keyOf(t, id), NO_DATA));
+    }
+    return t;
+  }
+
+  /**
+   * Stages deletion of the item with the batch.
+   * Writes should be locked until the batch is written, see {@link #lockWrites()}.
+   *
+   * @param batch batch to stage with
+   * @param id    id of the item to delete
+   */
+  public void stageDelete(final Batch batch, final long id) {
+    stageIndexRemoval(batch, id);
+    batch.remove(getKey(id));
+  }
+
+  /**
+   * Stages removal of the index entries of the current version of the item: the one
+   * staged earlier with the batch, or the stored one. It is read from the batch or the
+   * storage, not the cache, since cached items may be modified in place.
+   *
+   * @return current version of the item or null
+   */
+  private T stageIndexRemoval(final Batch batch, final long id) {
+    if (indexes.isEmpty()) {
+      return null;
+    }
+
+    final Record staged = batch.lastStaged(getKey(id));
+    final T current;
+    if (staged == null) {
+      current = readItem(id);
+    } else {
+      // Entries of the stored version are removed with the first staged operation.
+      current = staged.getData() != null ? converter.fromBytes(staged.getData(), clazz) : null;
+    }
+    if (current != null) {
+      for (FieldIndex<T> index : indexes.values()) {
+        batch.remove(index.keyOf(current, id));
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Returns the cache of items, which keeps hit and miss counts.
+   *
+   * @return cache or null, if caching is off
+   */
+  public EntityCache<T> getCache() {
+    return cache;
+  }
+
   @Override
   public int count() {
-    return getAllCollectionKeys().size();
+    return storage.count(description.getCollectionName());
   }
 
 
+  //endregion
+
+  //region streaming methods
+
+  @Override
+  public Cursor<T> cursor() {
+    return cursor(every);
+  }
+
+  @Override
+  public Cursor<T> cursor(final Predicate<T> predicate) {
+    return new Cursor<>(storage.iterate(description.getCollectionName()), converter, clazz,
+        predicate);
+  }
+
+  @Override
+  public Flowable<T> toRxFlowable() {
+    return Flowable.generate(
+        new Callable<Cursor<T>>() {
+          @Override
+          public Cursor<T> call() {
+            return cursor();
+          }
+        },
+        new BiConsumer<Cursor<T>, Emitter<T>>() {
+          @Override
+          public void accept(final Cursor<T> cursor, final Emitter<T> emitter) {
+            if (cursor.hasNext()) {
+              emitter.onNext(cursor.next());
+            } else {
+              emitter.onComplete();
+            }
+          }
+        }
+    );
+  }
+
   //endregion
 
   @Override
@@ -144,6 +436,36 @@ public class StoredConvertedCollection<T> implements Collection<T> {
     });
   }
 
+  @Override
+  public Call<List<T>> filterAsync(final Predicate<T> predicate, final Executor executor) {
+    return new Call<>(new Callable<List<T>>() {
+      @Override
+      public List<T> call() {
+        return filter(predicate, executor);
+      }
+    });
+  }
+
+  @Override
+  public Call<List<T>> findByAsync(final String field, final Object value) {
+    return new Call<>(new Callable<List<T>>() {
+      @Override
+      public List<T> call() {
+        return findBy(field, value);
+      }
+    });
+  }
+
+  @Override
+  public Call<List<T>> rangeAsync(final String field, final Object from, final Object to) {
+    return new Call<>(new Callable<List<T>>() {
+      @Override
+      public List<T> call() {
+        return range(field, from, to);
+      }
+    });
+  }
+
   @Override
   public Call<T> getAsync(final long id) {
     return new Call<>(new Callable<T>() {
@@ -215,30 +537,69 @@ public class StoredConvertedCollection<T> implements Collection<T> {
   }
 
   private T putItemToCollection(T t) {
-    long id = description.idOfItem(t);
-    if (id == 0) {
-      id = newSequenceId();
-      t = description.setItemId(t, id);
+    t = withId(t);
+    final long id = description.idOfItem(t);
+    if (indexes.isEmpty()) {
+      putRecord(id, t);
+    } else {
+      final Batch batch = new Batch();
+      lockWrites();
+      try {
+        stagePut(batch, t);
+        storage.write(batch);
+      } finally {
+        unlockWrites();
+      }
+    }
+    if (cache != null) {
+      cache.invalidate(id);
     }
-    storage.put(toRecord(id, t));
     return t;
   }
 
+  private T withId(final T t) {
+    return description.idOfItem(t) == 0
+        ? description.setItemId(t, newSequenceId())
+        : t;
+  }
+
+  /**
+   * Scans the collection in file order, which is much cheaper than reading items one by one.
+   */
   private ArrayList<T> findItemsWith(final Predicate<T> predicate) {
-    final List<byte[]> keys = getAllCollectionKeys();
+    final Cursor<T> cursor = cursor(predicate);
     final ArrayList<T> result = new ArrayList<>();
-    for (int i = 0; i < keys.size(); i++) {
-      final Record record = storage.get(keys.get(i));
-      final T t = converter.fromBytes(record.getData(), clazz);
-      if (predicate.test(t)) {
-        result.add(t);
-      }
+    while (cursor.hasNext()) {
+      result.add(cursor.next());
     }
     return result;
   }
 
   private List<byte[]> getAllCollectionKeys() {
-    return storage.prefixedWith(description.getCollectionName().getBytes());
+    return storage.prefixedWith(keyPrefix);
+  }
+
+  /**
+   * Encodes the item into the buffer of the current thread, and puts it without
+   * making a key or a record, so that puts allocate nothing besides the converter.
+   */
+  private void putRecord(final long id, final T t) {
+    final String collection = description.getCollectionName();
+    if (!(converter instanceof StreamingConverter)) {
+      final byte[] data = converter.toBytes(t);
+      storage.put(collection, id, data, data.length);
+      return;
+    }
+
+    final EncodeBuffer buffer = EncodeBuffer.acquire();
+    try {
+      ((StreamingConverter) converter).write(t, buffer);
+      storage.put(collection, id, buffer.array(), buffer.size());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      EncodeBuffer.release(buffer);
+    }
   }
 
   private Record toRecord(final long id, final T t) {
@@ -249,11 +610,46 @@ public class StoredConvertedCollection<T> implements Collection<T> {
   }
 
   private byte[] getKey(final long id) {
-    final String keyString = String.format(Locale.US,
-        "%s:%d",
-        description.getCollectionName(),
-        id);
-    return keyString.getBytes();
+    return CollectionKey.of(keyPrefix, id);
+  }
+
+  /**
+   * Moves records stored with text keys <pre>collection:id</pre> to binary keys.
+   * Each record is put under the new key before the old one is removed,
+   * so interrupted migration is continued on the next open.
+   */
+  private void migrateLegacyKeys() {
+    final byte[] legacyPrefix = CollectionKey.legacyPrefixOf(description.getCollectionName());
+    for (byte[] legacyKey : storage.prefixedWith(legacyPrefix)) {
+      if (!CollectionKey.isLegacyKey(legacyKey, legacyPrefix.length)) {
+        continue;
+      }
+
+      final Record record = storage.get(legacyKey);
+      if (record != null) {
+        final long id = CollectionKey.legacyIdOf(legacyKey, legacyPrefix.length);
+        storage.put(new Record(getKey(id), record.getData()));
+        storage.remove(legacyKey);
+      }
+    }
+  }
+
+  /**
+   * Adds entries of all items to the index, unless it was built before.
+   */
+  private void buildIndex(final FieldIndex<T> index) {
+    if (storage.get(index.markerKey()) != null) {
+      return;
+    }
+
+    final Batch batch = new Batch();
+    final Cursor<T> items = cursor();
+    while (items.hasNext()) {
+      final T t = items.next();
+      batch.put(new Record(index.keyOf(t, description.idOfItem(t)), NO_DATA));
+    }
+    batch.put(new Record(index.markerKey(), NO_DATA));
+    storage.write(batch);
   }
 
   private synchronized long newSequenceId() {
@@ -0,0 +1,23 @@
+package com.noodle.collection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link Converter}, that writes items to a stream, without building an intermediate
+ * string or array of the whole item. Items are read from stored arrays with
+ * {@link #fromBytes(byte[], Class)}, as storage returns data as arrays.
+ *
+ * @see GsonConverter
+ */
+public interface StreamingConverter extends Converter {
+
+  /**
+   * Writes the item to the stream. The stream is not closed.
+   *
+   * @param t      item to write
+   * @param output destination
+   * @throws IOException if the stream fails
+   */
+  <T> void write(T t, OutputStream output) throws IOException;
+}
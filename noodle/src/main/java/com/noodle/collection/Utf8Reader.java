@@ -0,0 +1,97 @@
+package com.noodle.collection;
+
+import java.io.Reader;
+
+/**
+ * {@link Reader}, that decodes UTF-8 right from an array. Unlike
+ * {@link java.io.InputStreamReader} it has no decoder and no internal buffers.
+ * Malformed bytes are decoded as U+FFFD, see {@link #isMalformed()}.
+ */
+class Utf8Reader extends Reader {
+
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private final byte[] bytes;
+  private final int end;
+  private int position;
+  // Low surrogate of the last decoded supplementary char, that did not fit.
+  private char pendingLowSurrogate;
+  private boolean malformed;
+
+  Utf8Reader(final byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  Utf8Reader(final byte[] bytes, final int offset, final int length) {
+    this.bytes = bytes;
+    this.position = offset;
+    this.end = offset + length;
+  }
+
+  @Override
+  public int read(final char[] chars, final int offset, final int count) {
+    if (count == 0) {
+      return 0;
+    }
+    if (position >= end && pendingLowSurrogate == 0) {
+      return -1;
+    }
+
+    int i = offset;
+    final int limit = offset + count;
+    if (pendingLowSurrogate != 0) {
+      chars[i++] = pendingLowSurrogate;
+      pendingLowSurrogate = 0;
+    }
+    while (i < limit && position < end) {
+      final int b = bytes[position++] & 0xFF;
+      if (b < 0x80) {
+        chars[i++] = (char) b;
+      } else if (b >= 0xC2 && b < 0xE0 && isContinuation(0)) {
+        chars[i++] = (char) (((b & 0x1F) << 6) | (bytes[position++] & 0x3F));
+      } else if (b >= 0xE0 && b < 0xF0 && isContinuation(0) && isContinuation(1)) {
+        chars[i++] = (char) (((b & 0x0F) << 12)
+            | ((bytes[position++] & 0x3F) << 6)
+            | (bytes[position++] & 0x3F));
+      } else if (b >= 0xF0 && b < 0xF5 && isContinuation(0) && isContinuation(1) && isContinuation(2)) {
+        final int codePoint = ((b & 0x07) << 18)
+            | ((bytes[position++] & 0x3F) << 12)
+            | ((bytes[position++] & 0x3F) << 6)
+            | (bytes[position++] & 0x3F);
+        final int supplementary = codePoint - 0x10000;
+        if (supplementary < 0 || codePoint > Character.MAX_CODE_POINT) {
+          malformed = true;
+          chars[i++] = REPLACEMENT;
+          continue;
+        }
+        chars[i++] = (char) (0xD800 | (supplementary >>> 10));
+        final char low = (char) (0xDC00 | (supplementary & 0x3FF));
+        if (i < limit) {
+          chars[i++] = low;
+        } else {
+          pendingLowSurrogate = low;
+        }
+      } else {
+        malformed = true;
+        chars[i++] = REPLACEMENT;
+      }
+    }
+    return i - offset;
+  }
+
+  /**
+   * Returns whether malformed bytes were read so far.
+   */
+  boolean isMalformed() {
+    return malformed;
+  }
+
+  @Override
+  public void close() {
+    // Nothing to release.
+  }
+
+  private boolean isContinuation(final int index) {
+    return position + index < end && (bytes[position + index] & 0xC0) == 0x80;
+  }
+}
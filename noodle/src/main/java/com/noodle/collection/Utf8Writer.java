@@ -0,0 +1,111 @@
+package com.noodle.collection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * {@link Writer}, that encodes chars to UTF-8 right into a growable array.
+ * Unlike {@link java.io.OutputStreamWriter} it has no encoder and no internal
+ * buffers, and it is reused after {@link #reset()}.
+ */
+class Utf8Writer extends Writer {
+
+  private byte[] bytes;
+  private int length;
+  // High surrogate, that waits for the low one written next.
+  private char pendingHighSurrogate;
+
+  Utf8Writer(final int initialCapacity) {
+    this.bytes = new byte[initialCapacity];
+  }
+
+  @Override
+  public void write(final int c) {
+    writeChar((char) c);
+  }
+
+  @Override
+  public void write(final char[] chars, final int offset, final int count) {
+    ensureCapacity(count * 3);
+    for (int i = offset; i < offset + count; i++) {
+      writeChar(chars[i]);
+    }
+  }
+
+  @Override
+  public void write(final String string, final int offset, final int count) {
+    ensureCapacity(count * 3);
+    for (int i = offset; i < offset + count; i++) {
+      writeChar(string.charAt(i));
+    }
+  }
+
+  @Override
+  public void flush() {
+    // Nothing is buffered.
+  }
+
+  @Override
+  public void close() {
+    // Nothing to release.
+  }
+
+  void reset() {
+    length = 0;
+    pendingHighSurrogate = 0;
+  }
+
+  int capacity() {
+    return bytes.length;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, length);
+  }
+
+  void writeTo(final OutputStream output) throws IOException {
+    output.write(bytes, 0, length);
+  }
+
+  private void writeChar(final char c) {
+    ensureCapacity(4);
+    if (pendingHighSurrogate != 0) {
+      final char high = pendingHighSurrogate;
+      pendingHighSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        final int codePoint = Character.toCodePoint(high, c);
+        bytes[length++] = (byte) (0xF0 | (codePoint >>> 18));
+        bytes[length++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        bytes[length++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      // Unpaired surrogate is replaced, as String.getBytes does.
+      bytes[length++] = '?';
+      ensureCapacity(3);
+    }
+
+    if (c < 0x80) {
+      bytes[length++] = (byte) c;
+    } else if (c < 0x800) {
+      bytes[length++] = (byte) (0xC0 | (c >>> 6));
+      bytes[length++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      pendingHighSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      bytes[length++] = '?';
+    } else {
+      bytes[length++] = (byte) (0xE0 | (c >>> 12));
+      bytes[length++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+      bytes[length++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void ensureCapacity(final int extra) {
+    if (length + extra > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+    }
+  }
+}
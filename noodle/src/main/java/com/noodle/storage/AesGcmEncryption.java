@@ -0,0 +1,174 @@
+package com.noodle.storage;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated AES-GCM encryption. Data is split into chunks of {@link #CHUNK_SIZE},
+ * each encrypted with its own nonce and tag, so that the cipher does not buffer
+ * large records as a whole. Encrypted data is
+ * <pre>[12 bytes random nonce][chunk][16 bytes tag]...[chunk][16 bytes tag]</pre>
+ * Key of the record, index of the chunk and whether it is the last one are
+ * authenticated with each chunk, so data moved to another key, reordered
+ * or truncated fails to decrypt. Ciphers are reused by each thread.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class AesGcmEncryption implements BufferEncryption {
+
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final byte[] NO_KEY = new byte[0];
+
+  private final SecretKeySpec key;
+  private final SecureRandom random = new SecureRandom();
+
+  private final ThreadLocal<CipherState> states = new ThreadLocal<CipherState>() {
+    @Override
+    protected CipherState initialValue() {
+      try {
+        return new CipherState(Cipher.getInstance(TRANSFORMATION));
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+      }
+    }
+  };
+
+  /**
+   * Creates encryption with the given AES key.
+   *
+   * @param key 16, 24 or 32 bytes of the key
+   */
+  public AesGcmEncryption(final byte[] key) {
+    if (key.length != 16 && key.length != 24 && key.length != 32) {
+      throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes long");
+    }
+    this.key = new SecretKeySpec(key, "AES");
+  }
+
+  @Override
+  public int encryptedLength(final int length) {
+    return NONCE_LENGTH + length + TAG_LENGTH * chunkCountOf(length);
+  }
+
+  @Override
+  public void encrypt(final byte[] data,
+                      final int length,
+                      final byte[] entry,
+                      final int keyOffset,
+                      final int keyLength) throws GeneralSecurityException {
+    final CipherState state = states.get();
+    final int nonceOffset = keyOffset + keyLength;
+    random.nextBytes(state.nonce);
+    System.arraycopy(state.nonce, 0, entry, nonceOffset, NONCE_LENGTH);
+
+    final int chunkCount = chunkCountOf(length);
+    int outputOffset = nonceOffset + NONCE_LENGTH;
+    for (int i = 0; i < chunkCount; i++) {
+      final int start = i * CHUNK_SIZE;
+      state.init(Cipher.ENCRYPT_MODE, key, entry, keyOffset, keyLength, i, i == chunkCount - 1);
+      outputOffset += state.cipher.doFinal(
+          data, start, Math.min(CHUNK_SIZE, length - start), entry, outputOffset);
+    }
+  }
+
+  @Override
+  public byte[] decrypt(final byte[] recordKey,
+                        final byte[] data,
+                        final int offset,
+                        final int length) throws GeneralSecurityException {
+    final int encryptedChunkSize = CHUNK_SIZE + TAG_LENGTH;
+    final int body = length - NONCE_LENGTH;
+    final int chunkCount = Math.max(1, body / encryptedChunkSize + (body % encryptedChunkSize != 0 ? 1 : 0));
+    final int plainLength = body - TAG_LENGTH * chunkCount;
+    if (body < 0 || plainLength < 0 || encryptedLength(plainLength) != length) {
+      throw new GeneralSecurityException("Encrypted data is corrupted");
+    }
+
+    final CipherState state = states.get();
+    System.arraycopy(data, offset, state.nonce, 0, NONCE_LENGTH);
+
+    final byte[] result = new byte[plainLength];
+    int inputOffset = offset + NONCE_LENGTH;
+    int outputOffset = 0;
+    for (int i = 0; i < chunkCount; i++) {
+      final int chunkLength = Math.min(encryptedChunkSize, offset + length - inputOffset);
+      state.init(Cipher.DECRYPT_MODE, key, recordKey, 0, recordKey.length, i, i == chunkCount - 1);
+      outputOffset += state.cipher.doFinal(data, inputOffset, chunkLength, result, outputOffset);
+      inputOffset += chunkLength;
+    }
+    return result;
+  }
+
+  /**
+   * Encrypts the data, which is not bound to any key.
+   */
+  @Override
+  public byte[] encrypt(final byte[] data) throws GeneralSecurityException {
+    final byte[] encrypted = new byte[encryptedLength(data.length)];
+    encrypt(data, data.length, encrypted, 0, 0);
+    return encrypted;
+  }
+
+  /**
+   * Decrypts the data encrypted with {@link #encrypt(byte[])}.
+   */
+  @Override
+  public byte[] decrypt(final byte[] data) throws GeneralSecurityException {
+    return decrypt(NO_KEY, data, 0, data.length);
+  }
+
+  private static int chunkCountOf(final int length) {
+    return Math.max(1, length / CHUNK_SIZE + (length % CHUNK_SIZE != 0 ? 1 : 0));
+  }
+
+  /**
+   * Cipher of a thread with buffers for its parameters.
+   */
+  private static class CipherState {
+
+    final Cipher cipher;
+    // Nonce of the record, nonces of chunks differ from it in the last 4 bytes.
+    final byte[] nonce = new byte[NONCE_LENGTH];
+    final byte[] chunkNonce = new byte[NONCE_LENGTH];
+    // Index of the chunk and the flag of the last one.
+    final byte[] chunkInfo = new byte[5];
+
+    CipherState(final Cipher cipher) {
+      this.cipher = cipher;
+    }
+
+    void init(final int mode,
+              final SecretKeySpec key,
+              final byte[] recordKey,
+              final int keyOffset,
+              final int keyLength,
+              final int index,
+              final boolean last) throws GeneralSecurityException {
+      System.arraycopy(nonce, 0, chunkNonce, 0, NONCE_LENGTH);
+      chunkNonce[8] ^= (byte) (index >>> 24);
+      chunkNonce[9] ^= (byte) (index >>> 16);
+      chunkNonce[10] ^= (byte) (index >>> 8);
+      chunkNonce[11] ^= (byte) index;
+
+      chunkInfo[0] = (byte) (index >>> 24);
+      chunkInfo[1] = (byte) (index >>> 16);
+      chunkInfo[2] = (byte) (index >>> 8);
+      chunkInfo[3] = (byte) index;
+      chunkInfo[4] = (byte) (last ? 1 : 0);
+
+      cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkNonce));
+      cipher.updateAAD(recordKey, keyOffset, keyLength);
+      cipher.updateAAD(chunkInfo);
+    }
+  }
+}
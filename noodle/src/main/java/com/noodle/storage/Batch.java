@@ -0,0 +1,80 @@
+package com.noodle.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Ordered set of puts and removals, which is written to the {@link Storage}
+ * atomically with {@link Storage#write(Batch)}: after a crash either all
+ * of them are in the storage, or none.
+ */
+public class Batch {
+
+  // Removal is kept as a record without data.
+  final List<Record> operations = new ArrayList<>();
+  // Last operation by key, created on the first lookup of a non-empty batch.
+  private HashMap<BytesWrapper, Record> lastOperations;
+
+  /**
+   * Stages the record to be put to a storage.
+   *
+   * @param record record to put
+   * @return this batch instance
+   */
+  public Batch put(final Record record) {
+    add(record);
+    return this;
+  }
+
+  /**
+   * Stages the removal of the record from a storage.
+   *
+   * @param key key of the record to remove
+   * @return this batch instance
+   */
+  public Batch remove(final byte[] key) {
+    add(new Record(key, null));
+    return this;
+  }
+
+  /**
+   * Checks whether anything is staged.
+   *
+   * @return true if the batch is empty
+   */
+  public boolean isEmpty() {
+    return operations.isEmpty();
+  }
+
+  /**
+   * Returns the last operation staged with the key, so that later operations
+   * may depend on earlier ones. Removal is a record without data.
+   *
+   * @param key key of the record
+   * @return last staged operation or null, if nothing is staged with the key
+   */
+  public Record lastStaged(final byte[] key) {
+    if (operations.isEmpty()) {
+      return null;
+    }
+    if (lastOperations == null) {
+      lastOperations = new HashMap<>();
+      for (Record operation : operations) {
+        lastOperations.put(new BytesWrapper(operation.key), operation);
+      }
+    }
+    return lastOperations.get(new BytesWrapper(key));
+  }
+
+  private void add(final Record operation) {
+    operations.add(operation);
+    if (lastOperations != null) {
+      lastOperations.put(new BytesWrapper(operation.key), operation);
+    }
+  }
+
+  static boolean isRemoval(final Record operation) {
+    return operation.data == null;
+  }
+}
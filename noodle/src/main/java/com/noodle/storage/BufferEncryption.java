@@ -0,0 +1,42 @@
+package com.noodle.storage;
+
+/**
+ * {@link Encryption}, which works on parts of arrays, so that the storage encrypts data
+ * right into the written entry and decrypts it right out of the read buffer.
+ * Key of the record is passed along, so that it can be authenticated with the data.
+ */
+public interface BufferEncryption extends Encryption {
+
+  /**
+   * Returns the length of the encrypted data.
+   *
+   * @param length length of the data
+   * @return length of the encrypted data
+   */
+  int encryptedLength(int length);
+
+  /**
+   * Encrypts the data into the entry, right after the key of the record.
+   *
+   * @param data      data to encrypt
+   * @param length    length of the data
+   * @param entry     array with the key, followed by room for the encrypted data
+   * @param keyOffset offset of the key in the entry
+   * @param keyLength length of the key
+   * @throws Exception
+   */
+  void encrypt(byte[] data, int length, byte[] entry, int keyOffset, int keyLength)
+      throws Exception;
+
+  /**
+   * Decrypts the part of the array.
+   *
+   * @param key    key of the record
+   * @param data   array with encrypted data
+   * @param offset offset of encrypted data in the array
+   * @param length length of encrypted data
+   * @return decrypted data
+   * @throws Exception
+   */
+  byte[] decrypt(byte[] key, byte[] data, int offset, int length) throws Exception;
+}
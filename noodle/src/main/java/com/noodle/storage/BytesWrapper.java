@@ -38,7 +38,8 @@ public class BytesWrapper implements Comparable<BytesWrapper> {
         continue;
       }
 
-      return thisByte - otherByte;
+      // Compared as unsigned, so that the order matches the order of UTF-8 strings.
+      return (thisByte & 0xFF) - (otherByte & 0xFF);
     }
 
     return bytes.length - another.bytes.length;
@@ -0,0 +1,66 @@
+package com.noodle.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link PositionalReader}, that uses positional {@link FileChannel} reads.
+ */
+class ChannelReader implements PositionalReader {
+
+  // Buffers for reading sizes of entries, so that each read does not allocate one.
+  private static final ThreadLocal<ByteBuffer> INT_BUFFERS = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(4);
+    }
+  };
+
+  private final FileChannel channel;
+  private volatile long length;
+
+  ChannelReader(final FileChannel channel, final long length) {
+    this.channel = channel;
+    this.length = length;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public void setLength(final long length) {
+    this.length = length;
+  }
+
+  @Override
+  public int readInt(final long position) throws IOException {
+    final ByteBuffer buffer = INT_BUFFERS.get();
+    buffer.clear();
+    readFully(position, buffer);
+    return buffer.getInt(0);
+  }
+
+  @Override
+  public void read(final long position, final byte[] destination) throws IOException {
+    readFully(position, ByteBuffer.wrap(destination));
+  }
+
+  private void readFully(final long position, final ByteBuffer buffer) throws IOException {
+    if (position + buffer.remaining() > length) {
+      throw new IOException("Position " + (position + buffer.remaining()) + " is beyond the end of file");
+    }
+
+    long pos = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, pos);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      pos += read;
+    }
+  }
+}
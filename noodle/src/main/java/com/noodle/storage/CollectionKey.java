@@ -0,0 +1,171 @@
+package com.noodle.storage;
+
+import java.nio.charset.Charset;
+
+/**
+ * Format of the keys of collection records:
+ * <pre>[0x01][name length][name][8 bytes id]</pre>
+ * Name is encoded in UTF-8 and may take up to 255 bytes, id is big-endian.
+ * All keys of a collection share the same prefix, which is computed once,
+ * so creating a key allocates only the key array.<br/>
+ * The storage recognizes keys of this format to keep track of
+ * collections in the {@link KeyRegistry}.
+ */
+public final class CollectionKey {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // First byte of every collection key, text keys never start with it.
+  private static final byte MARKER = 0x01;
+  private static final int MAX_NAME_LENGTH = 255;
+  private static final int ID_LENGTH = 8;
+
+  private static final byte LEGACY_SEPARATOR = ':';
+  // Number of digits in the longest decimal representation of long.
+  private static final int MAX_LEGACY_ID_DIGITS = 19;
+
+  private CollectionKey() {
+  }
+
+  /**
+   * Creates the prefix, that all keys of the collection have.
+   *
+   * @param collection name of the collection
+   * @return key prefix bytes
+   */
+  public static byte[] prefixOf(final String collection) {
+    final byte[] name = collection.getBytes(UTF_8);
+    if (name.length > MAX_NAME_LENGTH) {
+      throw new IllegalArgumentException("Collection name is too long: " + collection);
+    }
+
+    final byte[] prefix = new byte[2 + name.length];
+    prefix[0] = MARKER;
+    prefix[1] = (byte) name.length;
+    System.arraycopy(name, 0, prefix, 2, name.length);
+
+    return prefix;
+  }
+
+  /**
+   * Creates the key of a record in the collection.
+   *
+   * @param prefix collection prefix, see {@link #prefixOf(String)}
+   * @param id     id of the record
+   * @return key bytes
+   */
+  public static byte[] of(final byte[] prefix, final long id) {
+    final byte[] key = new byte[prefix.length + ID_LENGTH];
+    System.arraycopy(prefix, 0, key, 0, prefix.length);
+    for (int i = 0; i < ID_LENGTH; i++) {
+      key[key.length - 1 - i] = (byte) (id >>> (8 * i));
+    }
+    return key;
+  }
+
+  /**
+   * Creates the key of a record in the collection.
+   *
+   * @param collection name of the collection
+   * @param id         id of the record
+   * @return key bytes
+   */
+  public static byte[] of(final String collection, final long id) {
+    return of(prefixOf(collection), id);
+  }
+
+  /**
+   * Checks whether the key is made with {@link #of(byte[], long)}.
+   *
+   * @param key record key
+   * @return true if this is a collection key
+   */
+  static boolean isCollectionKey(final byte[] key) {
+    return key.length >= 2 + ID_LENGTH
+        && key[0] == MARKER
+        && key.length == prefixLengthOf(key) + ID_LENGTH;
+  }
+
+  /**
+   * Returns the length of the collection prefix of the key.
+   */
+  static int prefixLengthOf(final byte[] key) {
+    return 2 + (key[1] & 0xFF);
+  }
+
+  /**
+   * Decodes the collection name of a collection key.
+   */
+  static String collectionOf(final byte[] key) {
+    return new String(key, 2, key[1] & 0xFF, UTF_8);
+  }
+
+  /**
+   * Decodes the id of a collection key.
+   */
+  static long idOf(final byte[] key) {
+    long id = 0;
+    for (int i = key.length - ID_LENGTH; i < key.length; i++) {
+      id = (id << 8) | (key[i] & 0xFF);
+    }
+    return id;
+  }
+
+  /**
+   * Creates the prefix of the keys, that collection records had before binary keys
+   * were introduced: <pre>collection:id</pre>.
+   *
+   * @param collection name of the collection
+   * @return legacy key prefix bytes
+   */
+  public static byte[] legacyPrefixOf(final String collection) {
+    return (collection + ":").getBytes();
+  }
+
+  /**
+   * Checks whether the rest of the legacy key after the prefix is a decimal id.
+   *
+   * @param key          legacy key
+   * @param prefixLength length of the legacy prefix
+   * @return true if the key holds a valid id
+   */
+  public static boolean isLegacyKey(final byte[] key, final int prefixLength) {
+    final int idLength = key.length - prefixLength;
+    final int signLength = idLength > 0 && key[prefixLength] == '-' ? 1 : 0;
+    if (prefixLength == 0
+        || key[prefixLength - 1] != LEGACY_SEPARATOR
+        || idLength == signLength
+        || idLength - signLength > MAX_LEGACY_ID_DIGITS) {
+      return false;
+    }
+
+    for (int i = prefixLength + signLength; i < key.length; i++) {
+      if (key[i] < '0' || key[i] > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the id of a legacy key, that passed {@link #isLegacyKey(byte[], int)} check.
+   *
+   * @param key          legacy key
+   * @param prefixLength length of the legacy prefix
+   * @return id of the record
+   */
+  public static long legacyIdOf(final byte[] key, final int prefixLength) {
+    int i = prefixLength;
+    final boolean negative = key[i] == '-';
+    if (negative) {
+      i++;
+    }
+
+    long id = 0;
+    for (; i < key.length; i++) {
+      id = id * 10 + (key[i] - '0');
+    }
+
+    return negative ? -id : id;
+  }
+}
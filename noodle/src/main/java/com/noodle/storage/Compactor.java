@@ -0,0 +1,193 @@
+package com.noodle.storage;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reclaims the space taken by overwritten records and tombstones
+ * in the {@link RandomAccessFileStorage} file.<br/>
+ * Compaction is started on the background executor, when the share of dead
+ * bytes in the file crosses the garbage ratio threshold, or explicitly with
+ * {@link #compactAsync()}. Reads and writes are not blocked while live
+ * records are copied.<br/>
+ * Failed compaction is logged and kept as {@link #getLastError()}. Automatic
+ * compaction is not retried until the file grows or {@link #RETRY_DELAY} passes,
+ * so that a persistent error does not copy the file on every write.
+ */
+public class Compactor {
+
+  public static final float DEFAULT_GARBAGE_RATIO = 0.5f;
+
+  // Smaller files are not worth compacting automatically. Currently 1 MB.
+  public static final long DEFAULT_MIN_FILE_SIZE = 1024 * 1024;
+
+  // Time in milliseconds, after which failed compaction is retried automatically.
+  static final long RETRY_DELAY = 60 * 1000;
+
+  private static final Logger LOGGER = Logger.getLogger(Compactor.class.getName());
+
+  private final RandomAccessFileStorage storage;
+  private final float garbageRatio;
+  private final long minFileSize;
+  private Executor executor;
+  // Created, when no executor is set, and shut down on close.
+  private ExecutorService defaultExecutor;
+  private volatile boolean closed;
+
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  private volatile Exception lastError;
+  // Automatic compaction after a failure waits for the file to reach the length or for the time.
+  private volatile long retryFileLength;
+  private volatile long retryTime;
+
+  Compactor(final RandomAccessFileStorage storage,
+            final Executor executor,
+            final float garbageRatio,
+            final long minFileSize) {
+    this.storage = storage;
+    this.executor = executor;
+    this.garbageRatio = garbageRatio;
+    this.minFileSize = minFileSize;
+  }
+
+  /**
+   * Returns the share of dead bytes in the storage file.
+   *
+   * @return number from 0 to 1
+   */
+  public float getGarbageRatio() {
+    final long fileLength = storage.getFileLength();
+    return fileLength > 0
+        ? (float) storage.getDeadBytes() / fileLength
+        : 0f;
+  }
+
+  /**
+   * Checks whether the storage file crossed the garbage ratio threshold.
+   *
+   * @return true if compaction should be started
+   */
+  public boolean shouldCompact() {
+    return storage.getFileLength() >= minFileSize
+        && getGarbageRatio() >= garbageRatio;
+  }
+
+  /**
+   * Returns the error of the last compaction.
+   *
+   * @return error or null, if the last compaction succeeded
+   */
+  public Exception getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Synchronously compacts the storage file on the calling thread.
+   *
+   * @throws RuntimeException if compaction failed, see {@link #getLastError()}
+   */
+  public void compact() {
+    try {
+      runCompaction();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Schedules compaction on the background executor.
+   * Does nothing if compaction is already scheduled, or the storage is closed.
+   */
+  public void compactAsync() {
+    if (closed || !scheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (!closed) {
+              runCompaction();
+            }
+          } catch (Exception e) {
+            // Data file is left untouched, the error is logged and kept.
+          } finally {
+            scheduled.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Default executor is shut down by close.
+      scheduled.set(false);
+    }
+  }
+
+  /**
+   * Called by storage on close. Stops automatic compaction and shuts down
+   * the default executor. Executor set with the builder is left running.
+   */
+  synchronized void close() {
+    closed = true;
+    if (defaultExecutor != null) {
+      defaultExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Called by storage after each write, starts compaction if needed.
+   */
+  void onWrite() {
+    if (!scheduled.get() && shouldCompact() && isRetryDue()) {
+      compactAsync();
+    }
+  }
+
+  private boolean isRetryDue() {
+    return lastError == null
+        || storage.getFileLength() >= retryFileLength
+        || System.currentTimeMillis() >= retryTime;
+  }
+
+  private void runCompaction() throws IOException {
+    try {
+      storage.compact();
+      lastError = null;
+    } catch (IOException | RuntimeException e) {
+      final long fileLength = storage.getFileLength();
+      retryFileLength = fileLength + Math.max(minFileSize, fileLength / 2);
+      retryTime = System.currentTimeMillis() + RETRY_DELAY;
+      lastError = e;
+      LOGGER.log(Level.WARNING, "Compaction failed", e);
+      throw e;
+    }
+  }
+
+  private synchronized Executor getExecutor() {
+    if (executor == null) {
+      defaultExecutor = newDefaultExecutor();
+      executor = defaultExecutor;
+    }
+    return executor;
+  }
+
+  private static ExecutorService newDefaultExecutor() {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, "noodle-compactor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,24 @@
+package com.noodle.storage;
+
+/**
+ * Defines when writes to the {@link RandomAccessFileStorage} reach the disk.
+ */
+public enum Durability {
+
+  /**
+   * Data file is never synced explicitly, the OS decides when written data
+   * reaches the disk. Fastest, but recent writes may be lost on power failure.
+   */
+  NONE,
+
+  /**
+   * Data file is synced after every write, before the write returns.
+   */
+  SYNC,
+
+  /**
+   * Writes from all threads are synced together, once per interval or once
+   * enough bytes are pending. Each write returns, when its group is synced.
+   */
+  GROUP_COMMIT
+}
@@ -0,0 +1,211 @@
+package com.noodle.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+
+/**
+ * Syncs writes of the {@link RandomAccessFileStorage} in groups for
+ * {@link Durability#GROUP_COMMIT}. Writers append their entries as usual
+ * and wait, while the flusher thread syncs the data file once for all pending
+ * writes. Syncs are made at most once per interval, unless enough bytes are
+ * pending, so an idle storage syncs a single write right away, and under load
+ * writes of the interval are merged into one sync.<br/>
+ * Writes are identified by their sequence numbers, rather than positions,
+ * which change on compaction. Ranges of failed writes are kept until all
+ * waiters are woken, so a waiter woken after the next groups still sees its failure.
+ */
+class GroupCommitter {
+
+  /**
+   * Syncs the written data to disk.
+   */
+  interface Syncable {
+    void sync() throws IOException;
+  }
+
+  private final Syncable syncable;
+  private final long intervalMillis;
+  private final long maxPendingBytes;
+
+  // Sequence of the latest write, that waits for sync.
+  private long requestedSequence;
+  // All writes up to this sequence are synced.
+  private long durableSequence;
+  private long pendingBytes;
+  private long lastSyncTime;
+
+  // Ranges of failed writes in the order of sequences, cleared when nobody waits.
+  private final ArrayList<FailedRange> failedRanges = new ArrayList<>();
+  private int waiters;
+
+  private Thread flusher;
+  private boolean closed;
+
+  GroupCommitter(final Syncable syncable, final long intervalMillis, final long maxPendingBytes) {
+    this.syncable = syncable;
+    this.intervalMillis = intervalMillis;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  /**
+   * Blocks until the write is synced to disk.
+   *
+   * @param sequence sequence number of the write
+   * @param bytes    size of the write
+   */
+  synchronized void awaitDurable(final long sequence, final long bytes) throws IOException {
+    if (closed) {
+      throw new IOException("Storage is closed");
+    }
+    startFlusher();
+
+    requestedSequence = Math.max(requestedSequence, sequence);
+    pendingBytes += bytes;
+    notifyAll();
+
+    waiters++;
+    try {
+      while (durableSequence < sequence) {
+        wait();
+      }
+      final IOException failure = failureOf(sequence);
+      if (failure != null) {
+        throw new IOException("Failed to sync data file", failure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for sync");
+    } finally {
+      waiters--;
+      if (waiters == 0) {
+        failedRanges.clear();
+      }
+    }
+  }
+
+  private IOException failureOf(final long sequence) {
+    for (int i = failedRanges.size() - 1; i >= 0; i--) {
+      final FailedRange range = failedRanges.get(i);
+      if (range.last < sequence) {
+        break;
+      }
+      if (range.first < sequence) {
+        return range.failure;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Syncs pending writes and stops the flusher thread.
+   */
+  void close() {
+    final Thread thread;
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+      thread = flusher;
+    }
+
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void startFlusher() {
+    if (flusher != null) {
+      return;
+    }
+
+    flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (flushNextGroup()) {
+          // Keep flushing until closed.
+        }
+      }
+    }, "noodle-group-commit");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Waits for the group to gather and syncs it.
+   *
+   * @return false if the committer is closed and nothing is pending
+   */
+  private boolean flushNextGroup() {
+    final long sequence;
+    synchronized (this) {
+      try {
+        while (requestedSequence == durableSequence && !closed) {
+          wait();
+        }
+        if (requestedSequence == durableSequence) {
+          return false;
+        }
+
+        long remaining = lastSyncTime + intervalMillis - System.currentTimeMillis();
+        while (pendingBytes < maxPendingBytes && remaining > 0 && !closed) {
+          wait(remaining);
+          remaining = lastSyncTime + intervalMillis - System.currentTimeMillis();
+        }
+      } catch (InterruptedException e) {
+        // Sync what is pending right away.
+      }
+
+      sequence = requestedSequence;
+      pendingBytes = 0;
+      lastSyncTime = System.currentTimeMillis();
+    }
+
+    IOException syncFailure = null;
+    try {
+      syncable.sync();
+    } catch (IOException e) {
+      syncFailure = e;
+    }
+
+    synchronized (this) {
+      if (syncFailure == null) {
+        durableSequence = sequence;
+      } else {
+        final FailedRange last = failedRanges.isEmpty()
+            ? null
+            : failedRanges.get(failedRanges.size() - 1);
+        if (last != null && last.last == durableSequence) {
+          // Consecutive failures are merged, so that the list does not grow while the disk fails.
+          last.last = sequence;
+          last.failure = syncFailure;
+        } else {
+          failedRanges.add(new FailedRange(durableSequence, sequence, syncFailure));
+        }
+        // Failed writes are not retried, the next group starts after them.
+        durableSequence = sequence;
+      }
+      notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * Writes after the first and up to the last sequence, which failed to sync.
+   */
+  private static class FailedRange {
+
+    final long first;
+    long last;
+    IOException failure;
+
+    FailedRange(final long first, final long last, final IOException failure) {
+      this.first = first;
+      this.last = last;
+      this.failure = failure;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.noodle.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Index of the data file saved to disk, so that the storage is opened without
+ * reading every entry of the file. Layout of the snapshot file:
+ * <pre>[magic][version][covered length][dead bytes][tail checksum][count]
+ * [keySize][key][position]...
+ * [checksum]</pre>
+ * Snapshot covers the data file up to its length at the moment of writing,
+ * entries appended later are replayed on open. Tail checksum is computed over
+ * the last bytes of the covered part of the data file, so that the snapshot
+ * of a replaced or truncated file is not applied to it.
+ */
+class IndexSnapshot {
+
+  private static final int MAGIC = 0x4E4F4958;
+  private static final int VERSION = 1;
+  // Size of the data file part, which tail checksum is computed over.
+  private static final int TAIL_SIZE = 4096;
+
+  final long coveredLength;
+  final long deadBytes;
+  final byte[][] keys;
+  final long[] positions;
+
+  private IndexSnapshot(final long coveredLength,
+                        final long deadBytes,
+                        final byte[][] keys,
+                        final long[] positions) {
+    this.coveredLength = coveredLength;
+    this.deadBytes = deadBytes;
+    this.keys = keys;
+    this.positions = positions;
+  }
+
+  /**
+   * Returns the snapshot file of the data file.
+   */
+  static File fileOf(final File dataFile) {
+    return new File(dataFile.getPath() + ".index");
+  }
+
+  /**
+   * Writes the snapshot to a temporary file, which then replaces the previous snapshot.
+   *
+   * @param dataFile      data file, which is covered by the snapshot
+   * @param data          open data file, that is synced to disk
+   * @param coveredLength length of the data file
+   * @param deadBytes     size of outdated entries of the data file
+   * @param entries       keys and positions of live records
+   */
+  static void write(final File dataFile,
+                    final RandomAccessFile data,
+                    final long coveredLength,
+                    final long deadBytes,
+                    final List<Map.Entry<BytesWrapper, Long>> entries) throws IOException {
+    final File snapshotFile = fileOf(dataFile);
+    final File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+    final CRC32 checksum = new CRC32();
+    final FileOutputStream fileStream = new FileOutputStream(tempFile);
+    final DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(fileStream, 64 * 1024), checksum));
+
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(coveredLength);
+      output.writeLong(deadBytes);
+      output.writeLong(tailChecksumOf(data, coveredLength));
+      output.writeInt(entries.size());
+      for (Map.Entry<BytesWrapper, Long> entry : entries) {
+        final byte[] key = entry.getKey().bytes;
+        output.writeInt(key.length);
+        output.write(key);
+        output.writeLong(entry.getValue());
+      }
+      output.writeLong(checksum.getValue());
+
+      output.flush();
+      fileStream.getFD().sync();
+    } finally {
+      output.close();
+    }
+
+    if (!tempFile.renameTo(snapshotFile)) {
+      //noinspection ResultOfMethodCallIgnored
+      tempFile.delete();
+      throw new IOException("Failed to replace " + snapshotFile);
+    }
+  }
+
+  /**
+   * Reads the snapshot of the data file.
+   *
+   * @param dataFile data file, which snapshot is read
+   * @param data     open data file
+   * @return snapshot or null, if it is missing, corrupted or does not match the data file
+   */
+  static IndexSnapshot read(final File dataFile, final RandomAccessFile data) {
+    final File snapshotFile = fileOf(dataFile);
+    if (!snapshotFile.exists() || snapshotFile.length() > Integer.MAX_VALUE) {
+      return null;
+    }
+
+    try {
+      final byte[] bytes = new byte[(int) snapshotFile.length()];
+      final RandomAccessFile input = new RandomAccessFile(snapshotFile, "r");
+      try {
+        input.readFully(bytes);
+      } finally {
+        input.close();
+      }
+
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (bytes.length < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return null;
+      }
+
+      final CRC32 checksum = new CRC32();
+      checksum.update(bytes, 0, bytes.length - 8);
+      if (checksum.getValue() != buffer.getLong(bytes.length - 8)) {
+        return null;
+      }
+
+      final long coveredLength = buffer.getLong();
+      final long deadBytes = buffer.getLong();
+      final long tailChecksum = buffer.getLong();
+      if (coveredLength > data.length() || tailChecksum != tailChecksumOf(data, coveredLength)) {
+        return null;
+      }
+
+      final int count = buffer.getInt();
+      if (count < 0 || count > bytes.length) {
+        return null;
+      }
+      final byte[][] keys = new byte[count][];
+      final long[] positions = new long[count];
+      for (int i = 0; i < count; i++) {
+        final int keySize = buffer.getInt();
+        if (keySize <= 0 || keySize > buffer.remaining()) {
+          return null;
+        }
+        keys[i] = new byte[keySize];
+        buffer.get(keys[i]);
+        positions[i] = buffer.getLong();
+        if (positions[i] < 0 || positions[i] >= coveredLength) {
+          return null;
+        }
+      }
+
+      return new IndexSnapshot(coveredLength, deadBytes, keys, positions);
+
+    } catch (IOException | BufferUnderflowException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Removes the snapshot, which would not match the data file anymore.
+   */
+  static void delete(final File dataFile) throws IOException {
+    final File snapshotFile = fileOf(dataFile);
+    if (snapshotFile.exists() && !snapshotFile.delete()) {
+      throw new IOException("Failed to delete " + snapshotFile);
+    }
+  }
+
+  private static long tailChecksumOf(final RandomAccessFile data, final long length)
+      throws IOException {
+    final int size = (int) Math.min(TAIL_SIZE, length);
+    final byte[] tail = new byte[size];
+    data.seek(length - size);
+    data.readFully(tail);
+
+    final CRC32 checksum = new CRC32();
+    checksum.update(tail, 0, size);
+    return checksum.getValue();
+  }
+}
@@ -0,0 +1,291 @@
+package com.noodle.storage;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the records, which keys are made with {@link CollectionKey}.<br/>
+ * Each collection maps record ids to file positions with a primitive {@link LongLongMap},
+ * so a lookup by collection name and id allocates nothing, and an entry takes
+ * a few dozen bytes instead of a key array, its wrapper and a boxed position.
+ * Number of records and maximum id are kept along, so that collections
+ * can be opened and counted without parsing all of their keys.
+ */
+class KeyRegistry {
+
+  static final long NO_POSITION = LongLongMap.NO_VALUE;
+
+  private final ConcurrentHashMap<String, CollectionKeys> collections = new ConcurrentHashMap<>();
+
+  // Keys of one collection mostly come in a row, so the name is not decoded for each of them.
+  private volatile CollectionKeys lastCollection;
+
+  /**
+   * Returns the position of the record or {@link #NO_POSITION}.
+   */
+  long positionOf(final String collection, final long id) {
+    final CollectionKeys keys = collections.get(collection);
+    return keys != null ? keys.get(id) : NO_POSITION;
+  }
+
+  /**
+   * Returns the position of the record or {@link #NO_POSITION}.
+   *
+   * @param key collection key, see {@link CollectionKey#isCollectionKey(byte[])}
+   */
+  long positionOf(final byte[] key) {
+    final CollectionKeys keys = find(key);
+    return keys != null ? keys.get(CollectionKey.idOf(key)) : NO_POSITION;
+  }
+
+  /**
+   * Sets the position of the record. Called under the storage file lock.
+   *
+   * @param key collection key, see {@link CollectionKey#isCollectionKey(byte[])}
+   * @return previous position or {@link #NO_POSITION}
+   */
+  long put(final byte[] key, final long position) {
+    CollectionKeys keys = find(key);
+    if (keys == null) {
+      final String name = CollectionKey.collectionOf(key);
+      keys = new CollectionKeys(CollectionKey.prefixOf(name));
+      collections.put(name, keys);
+      lastCollection = keys;
+    }
+    return keys.put(CollectionKey.idOf(key), position);
+  }
+
+  /**
+   * Sets the position of the record. Called under the storage file lock.
+   *
+   * @return previous position or {@link #NO_POSITION}
+   */
+  long put(final String collection, final long id, final long position) {
+    return keysOf(collection).put(id, position);
+  }
+
+  /**
+   * Returns the prefix of the keys of the collection, which is kept along with positions.
+   * Called under the storage file lock.
+   */
+  byte[] prefixOf(final String collection) {
+    return keysOf(collection).prefix;
+  }
+
+  /**
+   * Removes the record. Called under the storage file lock.
+   *
+   * @param key collection key, see {@link CollectionKey#isCollectionKey(byte[])}
+   * @return removed position or {@link #NO_POSITION}
+   */
+  long remove(final byte[] key) {
+    final CollectionKeys keys = find(key);
+    return keys != null ? keys.remove(CollectionKey.idOf(key)) : NO_POSITION;
+  }
+
+  int count(final String collection) {
+    final CollectionKeys keys = collections.get(collection);
+    return keys != null ? keys.count() : 0;
+  }
+
+  long maxId(final String collection) {
+    final CollectionKeys keys = collections.get(collection);
+    return keys != null ? keys.maxId() : 0;
+  }
+
+  /**
+   * Returns ids of the records of the collection interleaved with their positions,
+   * ordered by the positions.
+   */
+  long[] entriesInFileOrder(final String collection) {
+    final CollectionKeys keys = collections.get(collection);
+    return keys != null ? keys.entriesInFileOrder() : new long[0];
+  }
+
+  /**
+   * Adds the keys, that start with the prefix, to the list.
+   * Keys of each collection are added in the order of ids.
+   */
+  void addKeysWithPrefix(final byte[] prefix, final List<byte[]> destination) {
+    for (CollectionKeys keys : collections.values()) {
+      final boolean wholeCollection = startsWith(keys.prefix, prefix);
+      if (!wholeCollection && !startsWith(prefix, keys.prefix)) {
+        continue;
+      }
+
+      final long[] ids = keys.ids();
+      Arrays.sort(ids);
+      for (long id : ids) {
+        final byte[] key = CollectionKey.of(keys.prefix, id);
+        if (wholeCollection || startsWith(key, prefix)) {
+          destination.add(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds all keys with their positions to the list.
+   */
+  void addEntries(final List<Map.Entry<BytesWrapper, Long>> destination) {
+    for (CollectionKeys keys : collections.values()) {
+      final long[] entries = keys.entries();
+      for (int i = 0; i < entries.length; i += 2) {
+        destination.add(new AbstractMap.SimpleImmutableEntry<>(
+            new BytesWrapper(CollectionKey.of(keys.prefix, entries[i])),
+            entries[i + 1]
+        ));
+      }
+    }
+  }
+
+  private CollectionKeys keysOf(final String collection) {
+    CollectionKeys keys = collections.get(collection);
+    if (keys == null) {
+      keys = new CollectionKeys(CollectionKey.prefixOf(collection));
+      collections.put(collection, keys);
+    }
+    return keys;
+  }
+
+  private CollectionKeys find(final byte[] key) {
+    final CollectionKeys last = lastCollection;
+    if (last != null && last.isCollectionOf(key)) {
+      return last;
+    }
+
+    final CollectionKeys keys = collections.get(CollectionKey.collectionOf(key));
+    if (keys != null) {
+      lastCollection = keys;
+    }
+    return keys;
+  }
+
+  private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+    if (bytes.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Positions of the records of a single collection. Writes are serialized by the monitor,
+   * lookups and counts are lock free: they retry, if the map was changed meanwhile.
+   */
+  private static class CollectionKeys {
+
+    private final byte[] prefix;
+    private final LongLongMap positions = new LongLongMap();
+    // Odd while the map is being changed, see #beginWrite().
+    private volatile int version;
+    // Highest id seen since the storage was opened, it does not decrease on removal.
+    private volatile long maxId;
+
+    CollectionKeys(final byte[] prefix) {
+      this.prefix = prefix;
+    }
+
+    boolean isCollectionOf(final byte[] key) {
+      return CollectionKey.prefixLengthOf(key) == prefix.length && startsWith(key, prefix);
+    }
+
+    long get(final long id) {
+      while (true) {
+        final int startVersion = version;
+        if ((startVersion & 1) == 0) {
+          final long position = positions.get(id);
+          if (version == startVersion) {
+            return position;
+          }
+        }
+        Thread.yield();
+      }
+    }
+
+    int count() {
+      while (true) {
+        final int startVersion = version;
+        if ((startVersion & 1) == 0) {
+          final int count = positions.size();
+          if (version == startVersion) {
+            return count;
+          }
+        }
+        Thread.yield();
+      }
+    }
+
+    long maxId() {
+      return maxId;
+    }
+
+    synchronized long put(final long id, final long position) {
+      if (id > maxId) {
+        maxId = id;
+      }
+      beginWrite();
+      try {
+        return positions.put(id, position);
+      } finally {
+        endWrite();
+      }
+    }
+
+    synchronized long remove(final long id) {
+      beginWrite();
+      try {
+        return positions.remove(id);
+      } finally {
+        endWrite();
+      }
+    }
+
+    // Bulk copies are rare, so they take the monitor instead of retrying.
+    synchronized long[] ids() {
+      final long[] entries = positions.entries();
+      final long[] ids = new long[entries.length / 2];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = entries[i * 2];
+      }
+      return ids;
+    }
+
+    synchronized long[] entries() {
+      return positions.entries();
+    }
+
+    private void beginWrite() {
+      version++;
+    }
+
+    private void endWrite() {
+      version++;
+    }
+
+    long[] entriesInFileOrder() {
+      final long[] entries = entries();
+      final long[] positions = new long[entries.length / 2];
+      final LongLongMap idsByPosition = new LongLongMap();
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = entries[i * 2 + 1];
+        idsByPosition.put(positions[i], entries[i * 2]);
+      }
+
+      // Positions are unique, so they are sorted and then matched with ids.
+      Arrays.sort(positions);
+      for (int i = 0; i < positions.length; i++) {
+        entries[i * 2] = idsByPosition.get(positions[i]);
+        entries[i * 2 + 1] = positions[i];
+      }
+      return entries;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.noodle.storage;
+
+/**
+ * Map of primitive long keys to long values with open addressing and linear probing.
+ * Keys and values are interleaved in a single array, so an entry takes
+ * about 24 bytes and nothing is boxed. Not thread safe, but {@link #get(long)}
+ * and {@link #size()} may run concurrently with a write and return garbage
+ * instead of failing, so that readers can validate the result with a version.
+ */
+class LongLongMap {
+
+  /**
+   * Returned when the key is not in the map.
+   */
+  static final long NO_VALUE = -1;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Pairs of key and value. Zero key marks the free slot, so its entry is kept aside.
+  private long[] slots = new long[INITIAL_CAPACITY * 2];
+  private boolean hasZeroKey;
+  private long zeroKeyValue;
+  private int size;
+
+  int size() {
+    return size;
+  }
+
+  long get(final long key) {
+    if (key == 0) {
+      return hasZeroKey ? zeroKeyValue : NO_VALUE;
+    }
+
+    // Array is read once and probes are bounded, as a concurrent write may replace it.
+    final long[] slots = this.slots;
+    final int mask = slots.length - 1;
+    int slot = homeOf(key, mask);
+    for (int probes = slots.length / 2; probes > 0; probes--) {
+      final long slotKey = slots[slot];
+      if (slotKey == key) {
+        return slots[slot + 1];
+      }
+      if (slotKey == 0) {
+        break;
+      }
+      slot = (slot + 2) & mask;
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Puts the value to the map.
+   *
+   * @return previous value or {@link #NO_VALUE}
+   */
+  long put(final long key, final long value) {
+    if (key == 0) {
+      final long previous = hasZeroKey ? zeroKeyValue : NO_VALUE;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroKeyValue = value;
+      return previous;
+    }
+
+    final int slot = slotOf(key);
+    if (slots[slot] == key) {
+      final long previous = slots[slot + 1];
+      slots[slot + 1] = value;
+      return previous;
+    }
+
+    slots[slot] = key;
+    slots[slot + 1] = value;
+    size++;
+    // Keep load factor under 0.75.
+    if (size * 8 > slots.length * 3) {
+      rehash(slots.length * 2);
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Removes the key from the map.
+   *
+   * @return removed value or {@link #NO_VALUE}
+   */
+  long remove(final long key) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return NO_VALUE;
+      }
+      hasZeroKey = false;
+      size--;
+      return zeroKeyValue;
+    }
+
+    int hole = slotOf(key);
+    if (slots[hole] != key) {
+      return NO_VALUE;
+    }
+    final long removed = slots[hole + 1];
+
+    // Shift back the following entries of the probe sequence, so no lookup stops at the hole.
+    final int mask = slots.length - 1;
+    int next = hole;
+    while (true) {
+      next = (next + 2) & mask;
+      final long moved = slots[next];
+      if (moved == 0) {
+        break;
+      }
+
+      final int home = homeOf(moved, mask);
+      final boolean staysInPlace = hole <= next
+          ? hole < home && home <= next
+          : hole < home || home <= next;
+      if (!staysInPlace) {
+        slots[hole] = moved;
+        slots[hole + 1] = slots[next + 1];
+        hole = next;
+      }
+    }
+    slots[hole] = 0;
+    slots[hole + 1] = 0;
+    size--;
+
+    return removed;
+  }
+
+  /**
+   * Copies all entries of the map.
+   *
+   * @return array of interleaved keys and values
+   */
+  long[] entries() {
+    final long[] entries = new long[size * 2];
+    int i = 0;
+    if (hasZeroKey) {
+      entries[i++] = 0;
+      entries[i++] = zeroKeyValue;
+    }
+    for (int slot = 0; slot < slots.length; slot += 2) {
+      if (slots[slot] != 0) {
+        entries[i++] = slots[slot];
+        entries[i++] = slots[slot + 1];
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Returns the slot, which holds the key, or the free slot, where it should be put.
+   */
+  private int slotOf(final long key) {
+    final int mask = slots.length - 1;
+    int slot = homeOf(key, mask);
+    while (slots[slot] != 0 && slots[slot] != key) {
+      slot = (slot + 2) & mask;
+    }
+    return slot;
+  }
+
+  private static int homeOf(final long key, final int mask) {
+    final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+    return ((h ^ (h >>> 16)) << 1) & mask;
+  }
+
+  private void rehash(final int capacity) {
+    final long[] old = slots;
+    slots = new long[capacity];
+    for (int slot = 0; slot < old.length; slot += 2) {
+      if (old[slot] != 0) {
+        final int newSlot = slotOf(old[slot]);
+        slots[newSlot] = old[slot];
+        slots[newSlot + 1] = old[slot + 1];
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.noodle.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only view of the data file, mapped into memory in fixed-size regions.<br/>
+ * Regions are mapped lazily on first access. The last region is mapped only
+ * up to the end of the file, and is remapped when reads reach past it,
+ * as the file grows.
+ */
+class MappedFile implements PositionalReader {
+
+  private final FileChannel channel;
+  private final int regionSize;
+
+  private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+  private volatile long length;
+
+  MappedFile(final FileChannel channel, final int regionSize, final long length) {
+    this.channel = channel;
+    this.regionSize = regionSize;
+    this.length = length;
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  @Override
+  public void setLength(final long length) {
+    this.length = length;
+  }
+
+  @Override
+  public int readInt(final long position) throws IOException {
+    final int offset = (int) (position % regionSize);
+    if (offset + 4 <= regionSize) {
+      return region(position, offset + 4).getInt(offset);
+    }
+
+    final byte[] bytes = new byte[4];
+    read(position, bytes);
+    return ByteBuffer.wrap(bytes).getInt();
+  }
+
+  @Override
+  public void read(final long position, final byte[] destination) throws IOException {
+    int done = 0;
+    while (done < destination.length) {
+      final long pos = position + done;
+      final int offset = (int) (pos % regionSize);
+      final int count = Math.min(destination.length - done, regionSize - offset);
+
+      final ByteBuffer view = region(pos, offset + count).duplicate();
+      view.position(offset);
+      view.get(destination, done, count);
+
+      done += count;
+    }
+  }
+
+  private MappedByteBuffer region(final long position, final int minSize) throws IOException {
+    final int index = (int) (position / regionSize);
+
+    MappedByteBuffer[] current = regions;
+    if (index < current.length && current[index] != null && current[index].capacity() >= minSize) {
+      return current[index];
+    }
+
+    synchronized (this) {
+      current = regions;
+      if (index < current.length && current[index] != null && current[index].capacity() >= minSize) {
+        return current[index];
+      }
+
+      final long start = (long) index * regionSize;
+      final long size = Math.min(regionSize, length - start);
+      if (size < minSize) {
+        throw new IOException("Position " + (start + minSize) + " is beyond the end of file");
+      }
+
+      final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      final MappedByteBuffer[] updated = Arrays.copyOf(current, Math.max(current.length, index + 1));
+      updated[index] = region;
+      regions = updated;
+
+      return region;
+    }
+  }
+}
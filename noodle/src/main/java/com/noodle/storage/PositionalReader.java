@@ -0,0 +1,24 @@
+package com.noodle.storage;
+
+import java.io.IOException;
+
+/**
+ * Reads the data file at absolute positions, without any shared file pointer,
+ * so that a single reader may be used by many threads at once.
+ */
+interface PositionalReader {
+
+  /**
+   * Returns the length of the file, which is safe to read.
+   */
+  long length();
+
+  /**
+   * Called by the writer after data is appended to the file.
+   */
+  void setLength(long length);
+
+  int readInt(long position) throws IOException;
+
+  void read(long position, byte[] destination) throws IOException;
+}
@@ -1,41 +1,161 @@
 package com.noodle.storage;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 
 /**
- *
+ * {@link Storage} backed by a single log-structured file. Records are never
+ * rewritten in place: updates append a new version of the record and removals
+ * append a tombstone, so both cost O(record size). The in-memory index always
+ * points at the newest version of each key. It is saved to the {@link IndexSnapshot}
+ * on {@link #checkpoint()} and {@link #close()}, and is restored on open from the
+ * snapshot and the entries appended after it, or by replaying the whole log.
+ * Space taken by outdated entries is reclaimed by the {@link Compactor}.
+ * Keys of collection records are indexed by id in the {@link KeyRegistry},
+ * all other keys are kept in a sorted map.
+ * <br/>
+ * Writes are serialized with the file lock, while {@link #get(byte[])} takes no locks:
+ * records are read with a {@link PositionalReader}, either with positional channel reads
+ * or from the {@link MappedFile}, so readers run in parallel with each other and with
+ * the appending writer. Recently read records may be kept in the {@link RecordCache}.
+ * Writes reach the disk according to the {@link Durability} mode.
+ * <br/>
+ * Each entry in the file has the layout <pre>[keySize][dataSize][key][data]</pre>,
+ * where tombstones have {@link #TOMBSTONE} data size and no data, and data size
+ * of compressed entries has the {@link #COMPRESSED} flag. Entries of a
+ * {@link Batch} are framed by {@link #BATCH_BEGIN} and {@link #BATCH_COMMIT} markers.
  */
-public class RandomAccessFileStorage implements Storage {
+public class RandomAccessFileStorage implements Storage, Closeable {
 
-  // Max size of the in-memory copy buffer. Currently 16 MB.
-  private static final int MAX_COPY_BUFFER_SIZE = 16 * 1024 * 1024;
-  private static final int MIN_COPY_BUFFER_SIZE = 1024;
+  // Data size of the entry, that marks removal of its key.
+  static final int TOMBSTONE = -1;
+  // Flag of the data size of entries, which data is compressed with RecordCompression.
+  static final int COMPRESSED = 0x40000000;
+  // Key sizes of the markers around batch entries. Data size of the begin marker
+  // is the length of the entries, and of the commit marker is their checksum.
+  static final int BATCH_BEGIN = -2;
+  static final int BATCH_COMMIT = -3;
 
+  // Batches are written in chunks of this size at most, so that a huge batch
+  // does not take the whole heap. Currently 1 MB.
+  static final int BATCH_CHUNK_SIZE = 1024 * 1024;
+
+  // Collection scans read the file in chunks of this size. Currently 1 MB.
+  static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+  // Entries are serialized into a reused buffer, which is kept up to this size. Currently 64 KB.
+  static final int MAX_RETAINED_ENTRY_BUFFER_SIZE = 64 * 1024;
+
+  // Size of memory mapped regions of the file. Currently 16 MB.
+  static final int DEFAULT_MAPPED_REGION_SIZE = 16 * 1024 * 1024;
+
+  // Group commit syncs pending writes at least this often, or once this many bytes are pending.
+  static final long DEFAULT_GROUP_COMMIT_INTERVAL = 10;
+  static final long DEFAULT_GROUP_COMMIT_SIZE = 1024 * 1024;
+
+  private final File dataFile;
   private final Encryption encryption;
-  private final RandomAccessFile file;
+  // Set if the encryption works on parts of arrays, see BufferEncryption.
+  private final BufferEncryption bufferEncryption;
+  private final Compactor compactor;
+  private final boolean memoryMapped;
+  private final int mappedRegionSize;
+  private final Durability durability;
+  private final GroupCommitter groupCommitter;
+  // Null if caching is off.
+  private final RecordCache recordCache;
+  private final RecordCompression compression;
+  // Compressed entries stay readable, after compression is turned off.
+  private final RecordCompression decompression;
+  private volatile RandomAccessFile file;
+  private volatile PositionalReader reader;
 
   private final Object fileLock = new Object();
-  private final Map<BytesWrapper, Long> index = new ConcurrentHashMap<>();
+  // Buffer of the entry being appended, guarded by the file lock.
+  private ByteBuffer entryBuffer = ByteBuffer.allocate(1024);
+  private final Object compactionLock = new Object();
+  // Keys, that are not collection keys. Sorted, so that keys with the same prefix are adjacent.
+  private final ConcurrentNavigableMap<BytesWrapper, Long> index = new ConcurrentSkipListMap<>();
+  private final KeyRegistry registry = new KeyRegistry();
+
+  // Position, where the next entry is appended.
+  private long fileLength;
+  // Size of overwritten entries and tombstones in the file.
+  private long deadBytes;
+  // Number of writes made, identifies writes waiting for group commit.
+  private long writeSequence;
+  // Incremented before and after the data file is swapped, so it is odd while swapping.
+  // Lock-free readers retry if it has changed during the read.
+  private volatile int generation;
+  private volatile boolean closed;
 
   public RandomAccessFileStorage(final File file, final Encryption encryption) {
-    this.encryption = encryption;
+    this(new Builder(file).encryption(encryption));
+  }
+
+  RandomAccessFileStorage(final Builder builder) {
+    this.dataFile = builder.file;
+    this.encryption = builder.encryption;
+    this.bufferEncryption = encryption instanceof BufferEncryption
+        ? (BufferEncryption) encryption
+        : null;
+    this.memoryMapped = builder.memoryMapped;
+    this.mappedRegionSize = builder.mappedRegionSize;
+    this.durability = builder.durability;
+    this.recordCache = builder.recordCacheSize > 0
+        ? new RecordCache(builder.recordCacheSize)
+        : null;
+    this.compression = builder.compression
+        ? new RecordCompression(builder.compressionDictionary)
+        : null;
+    this.decompression = compression != null
+        ? compression
+        : new RecordCompression(builder.compressionDictionary);
+    this.groupCommitter = durability == Durability.GROUP_COMMIT
+        ? new GroupCommitter(new GroupCommitter.Syncable() {
+            @Override
+            public void sync() throws IOException {
+              syncFile();
+            }
+          }, builder.groupCommitInterval, builder.groupCommitSize)
+        : null;
+    this.compactor = new Compactor(this,
+        builder.compactionExecutor,
+        builder.garbageRatio,
+        builder.minCompactionSize);
     try {
-      this.file = new RandomAccessFile(file, "rw");
+      this.file = new RandomAccessFile(dataFile, "rw");
 
-      final boolean existed = file.exists();
+      final boolean existed = dataFile.exists();
       if (!existed) {
         //noinspection ResultOfMethodCallIgnored
-        file.createNewFile();
+        dataFile.createNewFile();
       } else {
         remapIndexes();
       }
+      reader = openReader();
 
     } catch (Exception e) {
       throw toRuntimeException(e);
@@ -44,118 +164,567 @@ public class RandomAccessFileStorage implements Storage {
 
   @Override
   public void put(final Record record) {
+    final byte[] compressed = compress(record.data, record.data.length);
+    final byte[] payload = compressed != null ? compressed : record.data;
+    final byte[] stored = encryptData(payload, payload.length);
+    final int storedLength = storedLengthOf(stored, payload, payload.length);
+    final long sequence;
+    final int size = 8 + record.key.length + storedLength;
     synchronized (fileLock) {
-      final byte[] key = record.key;
-      final Record encryptedRecord = encryptRecord(record);
+      try {
+        final ByteBuffer entry = entryBufferOf(size)
+            .putInt(record.key.length)
+            .putInt(compressed != null ? storedLength | COMPRESSED : storedLength)
+            .put(record.key);
+        putData(entry, record.key.length, stored, payload.length, storedLength);
+        entry.flip();
+        final long pos = append(entry);
 
-      final long existingPos = positionOf(key);
+        onReplaced(putPosition(record.key, pos));
+        sequence = onWritten();
+      } catch (IOException e) {
+        throw toRuntimeException(e);
+      }
+    }
+    afterWrite(sequence, size);
+  }
+
+  /**
+   * Writes the entry through the reused buffer, and looks the collection up by name,
+   * so that steady state puts without encryption allocate nothing.
+   */
+  @Override
+  public void put(final String collection, final long id, final byte[] data, final int length) {
+    final byte[] compressed = compress(data, length);
+    final byte[] payload = compressed != null ? compressed : data;
+    final int payloadLength = compressed != null ? compressed.length : length;
+    final byte[] stored = encryptData(payload, payloadLength);
+    final int storedLength = storedLengthOf(stored, payload, payloadLength);
+    final long sequence;
+    final int size;
+    synchronized (fileLock) {
+      final byte[] prefix = registry.prefixOf(collection);
+      size = 16 + prefix.length + storedLength;
+      try {
+        final ByteBuffer entry = entryBufferOf(size)
+            .putInt(prefix.length + 8)
+            .putInt(compressed != null ? storedLength | COMPRESSED : storedLength)
+            .put(prefix)
+            .putLong(id);
+        putData(entry, prefix.length + 8, stored, payloadLength, storedLength);
+        entry.flip();
+        final long pos = append(entry);
 
-      if (existingPos != -1) {
-        remove(key);
+        onReplaced(registry.put(collection, id, pos));
+        sequence = onWritten();
+      } catch (IOException e) {
+        throw toRuntimeException(e);
       }
+    }
+    afterWrite(sequence, size);
+  }
 
+  /**
+   * Puts the data, returned by {@link #encryptData(byte[], int)}, after the key,
+   * which the entry ends with. {@link BufferEncryption} encrypts it right into the entry.
+   *
+   * @param length       length of the data before encryption
+   * @param storedLength length of the data in the entry
+   */
+  private void putData(final ByteBuffer entry,
+                       final int keyLength,
+                       final byte[] data,
+                       final int length,
+                       final int storedLength) {
+    if (bufferEncryption == null) {
+      entry.put(data, 0, storedLength);
+      return;
+    }
+    try {
+      bufferEncryption.encrypt(data, length, entry.array(), entry.position() - keyLength, keyLength);
+    } catch (Exception e) {
+      throw toRuntimeException(e);
+    }
+    entry.position(entry.position() + storedLength);
+  }
+
+  /**
+   * Returns the cleared entry buffer of at least the given size. Called under the file lock.
+   */
+  private ByteBuffer entryBufferOf(final int size) {
+    if (size > MAX_RETAINED_ENTRY_BUFFER_SIZE) {
+      return ByteBuffer.allocate(size);
+    }
+    if (entryBuffer.capacity() < size) {
+      entryBuffer = ByteBuffer.allocate(Math.min(
+          Math.max(size, entryBuffer.capacity() * 2), MAX_RETAINED_ENTRY_BUFFER_SIZE));
+    }
+    entryBuffer.clear();
+    return entryBuffer;
+  }
+
+  /**
+   * Accounts the replaced entry as garbage. Called under the file lock.
+   *
+   * @param replacedPos position of the replaced entry or -1
+   */
+  private void onReplaced(final long replacedPos) throws IOException {
+    if (replacedPos != -1) {
+      deadBytes += entrySizeAt(replacedPos);
+      forgetRecordAt(replacedPos);
+    }
+  }
+
+  @Override
+  public void putAll(final List<Record> records) {
+    final Batch batch = new Batch();
+    for (Record record : records) {
+      batch.put(record);
+    }
+    write(batch);
+  }
+
+  /**
+   * Serializes the batch into one frame <pre>[BATCH_BEGIN][length][entries][BATCH_COMMIT][checksum]</pre>
+   * and appends it under a single acquisition of the file lock. Frames larger than
+   * {@link #BATCH_CHUNK_SIZE} are written chunk by chunk. On open, entries of the frame
+   * are replayed only if its commit marker is in place and the checksum matches, so
+   * a batch torn by a crash is dropped as a whole.
+   */
+  @Override
+  public void write(final Batch batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    final List<Record> operations = batch.operations;
+    final Record[] entries = new Record[operations.size()];
+    final boolean[] compressed = new boolean[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      final Record operation = operations.get(i);
+      if (Batch.isRemoval(operation)) {
+        entries[i] = operation;
+        continue;
+      }
+      final byte[] compressedData = compress(operation.data, operation.data.length);
+      compressed[i] = compressedData != null;
+      entries[i] = encryptRecord(compressedData != null
+          ? new Record(operation.key, compressedData)
+          : operation);
+    }
+
+    final long sequence;
+    final int length;
+    synchronized (fileLock) {
+      // Removals of keys, that are not in the storage by then, are skipped.
+      final Map<BytesWrapper, Boolean> stagedKeys = new HashMap<>();
+      final boolean[] skipped = new boolean[entries.length];
+      int entriesLength = 0;
+      for (int i = 0; i < entries.length; i++) {
+        final BytesWrapper key = new BytesWrapper(entries[i].key);
+        if (Batch.isRemoval(entries[i])) {
+          final Boolean staged = stagedKeys.get(key);
+          skipped[i] = staged != null ? !staged : positionOf(entries[i].key) == -1;
+          stagedKeys.put(key, false);
+        } else {
+          stagedKeys.put(key, true);
+        }
+        if (!skipped[i]) {
+          entriesLength += entrySizeOf(entries[i]);
+        }
+      }
+      if (entriesLength == 0) {
+        return;
+      }
+      length = entriesLength + 16;
+
+      final long start = fileLength;
       try {
-        final long pos = file.length();
+        appendFrame(entries, compressed, skipped, entriesLength);
 
-        file.seek(pos);
-        file.writeInt(encryptedRecord.key.length);
-        file.writeInt(encryptedRecord.data.length);
-        file.write(encryptedRecord.key);
-        file.write(encryptedRecord.data);
+        long pos = start + 8;
+        for (int i = 0; i < entries.length; i++) {
+          if (skipped[i]) {
+            continue;
+          }
 
-        index.put(new BytesWrapper(key), pos);
+          final long replacedPos = Batch.isRemoval(entries[i])
+              ? removePosition(entries[i].key)
+              : putPosition(entries[i].key, pos);
+          if (replacedPos != -1) {
+            deadBytes += entrySizeAt(replacedPos);
+            forgetRecordAt(replacedPos);
+          }
+          if (Batch.isRemoval(entries[i])) {
+            deadBytes += entrySizeOf(entries[i]);
+          }
+          pos += entrySizeOf(entries[i]);
+        }
+        deadBytes += 16;
       } catch (IOException e) {
+        discardTail(start);
         throw toRuntimeException(e);
       }
+
+      try {
+        sequence = onWritten();
+      } catch (IOException e) {
+        throw toRuntimeException(e);
+      }
+    }
+    afterWrite(sequence, length);
+  }
+
+  private void appendFrame(final Record[] entries,
+                           final boolean[] compressed,
+                           final boolean[] skipped,
+                           final int length) throws IOException {
+    final CRC32 checksum = new CRC32();
+    ByteBuffer chunk = ByteBuffer.allocate(Math.min(BATCH_CHUNK_SIZE, length + 16));
+    chunk.putInt(BATCH_BEGIN).putInt(length);
+    int checksumStart = 8;
+
+    for (int i = 0; i < entries.length; i++) {
+      if (skipped[i]) {
+        continue;
+      }
+
+      final int size = entrySizeOf(entries[i]);
+      if (chunk.remaining() < size) {
+        checksum.update(chunk.array(), checksumStart, chunk.position() - checksumStart);
+        append(chunk.array(), chunk.position());
+        chunk = ByteBuffer.allocate(Math.max(chunk.capacity(), size));
+        checksumStart = 0;
+      }
+
+      chunk.putInt(entries[i].key.length);
+      if (Batch.isRemoval(entries[i])) {
+        chunk.putInt(TOMBSTONE).put(entries[i].key);
+      } else {
+        final int dataSize = entries[i].data.length;
+        chunk.putInt(compressed[i] ? dataSize | COMPRESSED : dataSize)
+            .put(entries[i].key)
+            .put(entries[i].data);
+      }
+    }
+
+    checksum.update(chunk.array(), checksumStart, chunk.position() - checksumStart);
+    if (chunk.remaining() < 8) {
+      append(chunk.array(), chunk.position());
+      chunk = ByteBuffer.allocate(8);
+    }
+    chunk.putInt(BATCH_COMMIT).putInt((int) checksum.getValue());
+    append(chunk.array(), chunk.position());
+  }
+
+  private static int entrySizeOf(final Record entry) {
+    return Batch.isRemoval(entry) ? 8 + entry.key.length : entry.size();
+  }
+
+  /**
+   * Cuts off the partially written batch, so that entries appended later
+   * are not lost with it on replay.
+   */
+  private void discardTail(final long length) {
+    try {
+      file.getChannel().truncate(length);
+    } catch (IOException e) {
+      // The torn batch is dropped on the next open, along with anything after it.
     }
+    fileLength = length;
+    reader.setLength(length);
   }
 
   @Override
   public Record remove(final byte[] key) {
+    final Record removed;
+    final long sequence;
+    final int length;
     synchronized (fileLock) {
       final long pos = positionOf(key);
       if (pos == -1) {
         return null;
       }
 
-      final Record encryptedRecord = getRecordAt(pos);
+      try {
+        removed = getRecordAt(pos);
+        final long size = entrySizeAt(pos);
 
+        final byte[] tombstone = tombstoneOf(key);
+        append(tombstone);
+        removePosition(key);
+        forgetRecordAt(pos);
+        deadBytes += size + tombstone.length;
+        sequence = onWritten();
+        length = tombstone.length;
+      } catch (IOException e) {
+        throw toRuntimeException(e);
+      }
+    }
+    afterWrite(sequence, length);
+    return removed;
+  }
+
+  /**
+   * Called under the file lock after each write.
+   *
+   * @return sequence number of the write
+   */
+  private long onWritten() throws IOException {
+    if (durability == Durability.SYNC) {
+      file.getChannel().force(false);
+    }
+    return ++writeSequence;
+  }
+
+  /**
+   * Called after each write, once the file lock is released.
+   */
+  private void afterWrite(final long sequence, final long length) {
+    if (groupCommitter != null) {
       try {
-        final int encryptedSize = encryptedRecord.size();
+        groupCommitter.awaitDurable(sequence, length);
+      } catch (IOException e) {
+        throw toRuntimeException(e);
+      }
+    }
+    compactor.onWrite();
+  }
 
-        // Last element.
-        if (pos + encryptedSize >= file.length()) {
-          file.setLength(pos);
-        } else {
-          // In the middle or beginning.
+  /**
+   * Syncs the data file without holding the file lock, so that writers
+   * may append the next group meanwhile.
+   */
+  private void syncFile() throws IOException {
+    final FileChannel channel;
+    synchronized (fileLock) {
+      channel = file.getChannel();
+    }
 
-          final int remainderSize = (int) (file.length() - pos);
-          byte[] copyBuffer = allocateCopyBuffer(remainderSize);
+    try {
+      channel.force(false);
+    } catch (ClosedChannelException e) {
+      // Data file was swapped by compaction or reopened after interrupt.
+      synchronized (fileLock) {
+        reopenClosedFile();
+        file.getChannel().force(false);
+      }
+    }
+  }
 
-          long fromPos = pos + encryptedSize;
-          long toPos = pos;
-          long fileLength = file.length();
+  private long append(final byte[] entry) throws IOException {
+    return append(entry, entry.length);
+  }
 
-          while (fromPos < fileLength) {
-            file.seek(fromPos);
-            int read = file.read(copyBuffer);
-            fromPos += read;
+  private long append(final byte[] entry, final int length) throws IOException {
+    return append(ByteBuffer.wrap(entry, 0, length));
+  }
 
-            file.seek(toPos);
-            file.write(copyBuffer, 0, read);
+  /**
+   * Appends the buffer from its start to its limit.
+   */
+  private long append(final ByteBuffer buffer) throws IOException {
+    final long pos = fileLength;
+    final int length = buffer.limit();
 
-            toPos += read;
-          }
+    try {
+      final FileChannel channel = file.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, pos + buffer.position());
+      }
+    } catch (ClosedChannelException e) {
+      reopenClosedFile();
+      throw e;
+    }
+
+    fileLength = pos + length;
+    reader.setLength(fileLength);
+
+    return pos;
+  }
+
+  private PositionalReader openReader() {
+    return memoryMapped
+        ? new MappedFile(file.getChannel(), mappedRegionSize, fileLength)
+        : new ChannelReader(file.getChannel(), fileLength);
+  }
+
+  /**
+   * Channel is closed for all threads, if any of them is interrupted during I/O.
+   * Reopens the file, so that only the interrupted operation fails.
+   */
+  private void reopenClosedFile() throws IOException {
+    synchronized (fileLock) {
+      if (closed) {
+        throw new IOException("Storage is closed");
+      }
+      if (file.getChannel().isOpen()) {
+        return;
+      }
+
+      generation++;
+      try {
+        file = new RandomAccessFile(dataFile, "rw");
+        reader = openReader();
+      } finally {
+        generation++;
+      }
+    }
+  }
+
+  private static byte[] tombstoneOf(final byte[] key) {
+    return ByteBuffer.allocate(8 + key.length)
+        .putInt(key.length)
+        .putInt(TOMBSTONE)
+        .put(key)
+        .array();
+  }
+
+  /**
+   * Reads the record without locking. Compaction may swap the file and move
+   * the records meanwhile, in this case the read is retried.
+   */
+  @Override
+  public Record get(final byte[] key) {
+    return read(key, null, 0);
+  }
+
+  /**
+   * Looks the record up in the collection index directly, without making its key.
+   */
+  @Override
+  public Record get(final String collection, final long id) {
+    return read(null, collection, id);
+  }
 
-          file.setLength(fileLength - encryptedSize);
+  /**
+   * Reads the record by the key, or by collection and id, if the key is null.
+   */
+  private Record read(final byte[] key, final String collection, final long id) {
+    while (true) {
+      final int startGeneration = generation;
 
-          // Update indexes.
-          for (BytesWrapper wrapper : index.keySet()) {
-            final long recordPos = index.get(wrapper);
+      if ((startGeneration & 1) == 0) {
+        try {
+          final long pos = key != null
+              ? positionOf(key)
+              : registry.positionOf(collection, id);
+          if (pos == -1) {
+            return null;
+          }
 
-            if (recordPos > pos) {
-              index.put(wrapper, recordPos - encryptedSize);
+          if (recordCache != null) {
+            final Record cached = recordCache.get(pos);
+            if (cached != null && generation == startGeneration) {
+              return cached;
             }
           }
-        }
 
-        index.remove(new BytesWrapper(key));
+          final PositionalReader currentReader = reader;
+          final int keySize = currentReader.readInt(pos);
+          final int dataSize = currentReader.readInt(pos + 4);
+          final int dataLength = dataLengthOf(dataSize);
 
-        return decryptRecord(encryptedRecord);
-      } catch (IOException e) {
-        throw toRuntimeException(e);
+          // Sizes read from a swapped file may be garbage, check before allocating.
+          if (generation == startGeneration) {
+            if (keySize <= 0 || dataSize < 0 || pos + 8 + keySize + dataLength > currentReader.length()) {
+              throw new IOException("Data is corrupted at " + pos);
+            }
+
+            final byte[] keyBytes = new byte[keySize];
+            final byte[] dataBytes = new byte[dataLength];
+            currentReader.read(pos + 8, keyBytes);
+            currentReader.read(pos + 8 + keySize, dataBytes);
+
+            if (generation == startGeneration) {
+              final Record record = decodeRecord(keyBytes, dataBytes, 0, dataSize);
+              if (recordCache != null) {
+                recordCache.put(pos, record, startGeneration);
+              }
+              return record;
+            }
+          }
+        } catch (ClosedByInterruptException e) {
+          recoverFrom(e);
+          throw toRuntimeException(e);
+        } catch (ClosedChannelException e) {
+          recoverFrom(e);
+        } catch (IOException e) {
+          if (generation == startGeneration) {
+            throw toRuntimeException(e);
+          }
+        }
       }
+
+      Thread.yield();
     }
   }
 
-  private byte[] allocateCopyBuffer(final int remainderSize) {
-    final Runtime runtime = Runtime.getRuntime();
-    final int usedMemory = (int) (runtime.totalMemory() - runtime.freeMemory());
-    final int availableMemory = (int) (runtime.maxMemory() - usedMemory);
+  /**
+   * Scans the data file sequentially, see {@link CollectionScan}.
+   */
+  @Override
+  public Iterator<Record> iterate(final String collection) {
+    return new CollectionScan(collection);
+  }
 
-    // Set buffer size to be as much as remaining size of the file,
-    // but not bigger than a half of available heap and not bigger
-    // than MAX_COPY_BUFFER_SIZE limit.
-    int size = Math.min(remainderSize, availableMemory / 2);
-    size = Math.min(size, MAX_COPY_BUFFER_SIZE);
-    size = Math.max(size, MIN_COPY_BUFFER_SIZE);
+  private void forgetRecordAt(final long position) {
+    if (recordCache != null) {
+      recordCache.remove(position);
+    }
+  }
 
-    return new byte[size];
+  private void recoverFrom(final ClosedChannelException e) {
+    try {
+      reopenClosedFile();
+    } catch (IOException reopenException) {
+      throw toRuntimeException(reopenException);
+    }
   }
 
-  @Override
-  public Record get(final byte[] key) {
-    synchronized (fileLock) {
-      final long pos = positionOf(key);
+  /**
+   * Compresses the given length of the data, if compression is on.
+   *
+   * @return compressed data, or null if data is stored as is
+   */
+  private byte[] compress(final byte[] data, final int length) {
+    return compression != null ? compression.compress(data, length) : null;
+  }
+
+  /**
+   * Encrypts the given length of the data. Data is returned as is without encryption,
+   * and with {@link BufferEncryption}, which encrypts it while it is put into the entry.
+   */
+  private byte[] encryptData(final byte[] data, final int length) {
+    if (encryption == Encryption.NO_ENCRYPTION || bufferEncryption != null) {
+      return data;
+    }
+    try {
+      return encryption.encrypt(length == data.length ? data : Arrays.copyOf(data, length));
+    } catch (Exception e) {
+      throw toRuntimeException(e);
+    }
+  }
 
-      return pos != -1
-          ? decryptRecord(getRecordAt(pos))
-          : null;
+  /**
+   * Returns the length of the data in the entry, see {@link #encryptData(byte[], int)}.
+   */
+  private int storedLengthOf(final byte[] stored, final byte[] data, final int length) {
+    if (stored != data) {
+      return stored.length;
     }
+    return bufferEncryption != null ? bufferEncryption.encryptedLength(length) : length;
   }
 
   private Record encryptRecord(final Record original) {
     try {
+      if (bufferEncryption != null) {
+        final int keyLength = original.key.length;
+        final byte[] entry = new byte[keyLength + bufferEncryption.encryptedLength(original.data.length)];
+        System.arraycopy(original.key, 0, entry, 0, keyLength);
+        bufferEncryption.encrypt(original.data, original.data.length, entry, 0, keyLength);
+        return new Record(original.key, Arrays.copyOfRange(entry, keyLength, entry.length));
+      }
       return new Record(
           original.key,
           encryption.encrypt(original.data)
@@ -165,89 +734,795 @@ public class RandomAccessFileStorage implements Storage {
     }
   }
 
+  /**
+   * Scans the range of the sorted index, which starts with the prefix,
+   * so the lookup costs O(log N + matches). Collection keys are made from
+   * ids of the collections, that match the prefix.
+   */
   @Override
   public List<byte[]> prefixedWith(final byte[] prefix) {
     final ArrayList<byte[]> keys = new ArrayList<>();
-    for (BytesWrapper wrapper : index.keySet()) {
-      if (wrapper.hasPrefix(prefix)) {
-        keys.add(wrapper.bytes);
+    for (BytesWrapper wrapper : index.tailMap(new BytesWrapper(prefix)).keySet()) {
+      if (!wrapper.hasPrefix(prefix)) {
+        break;
       }
+      keys.add(wrapper.bytes);
     }
+    registry.addKeysWithPrefix(prefix, keys);
     return Collections.unmodifiableList(keys);
   }
 
+  @Override
+  public List<byte[]> keysInRange(final byte[] from, final byte[] to) {
+    final BytesWrapper fromKey = new BytesWrapper(from);
+    final BytesWrapper toKey = new BytesWrapper(to);
+    if (fromKey.compareTo(toKey) >= 0) {
+      return Collections.emptyList();
+    }
+
+    final ArrayList<byte[]> keys = new ArrayList<>();
+    for (BytesWrapper wrapper : index.subMap(fromKey, toKey).keySet()) {
+      keys.add(wrapper.bytes);
+    }
+    return Collections.unmodifiableList(keys);
+  }
+
+  @Override
+  public int count(final String collection) {
+    return registry.count(collection);
+  }
+
+  @Override
+  public long maxId(final String collection) {
+    return registry.maxId(collection);
+  }
+
+  /**
+   * Returns positions of the records, which keys are not collection keys.
+   *
+   * @return index of the storage
+   */
   public Map<BytesWrapper, Long> getIndex() {
     return index;
   }
 
-  private Record decryptRecord(final Record encrypted) {
+  /**
+   * Returns the {@link Compactor}, that reclaims space of this storage.
+   *
+   * @return compactor of this storage
+   */
+  public Compactor getCompactor() {
+    return compactor;
+  }
+
+  /**
+   * Syncs the data file and saves the index to the {@link IndexSnapshot},
+   * so that the next open replays only entries appended after this call.
+   */
+  public void checkpoint() {
+    synchronized (compactionLock) {
+      final List<Map.Entry<BytesWrapper, Long>> entries;
+      final long coveredLength;
+      final long coveredDeadBytes;
+      synchronized (fileLock) {
+        try {
+          file.getFD().sync();
+        } catch (IOException e) {
+          throw toRuntimeException(e);
+        }
+        entries = new ArrayList<>(index.entrySet());
+        registry.addEntries(entries);
+        coveredLength = fileLength;
+        coveredDeadBytes = deadBytes;
+      }
+
+      // Covered part of the file is not modified until compaction, no lock is needed.
+      try {
+        final RandomAccessFile source = new RandomAccessFile(dataFile, "r");
+        try {
+          IndexSnapshot.write(dataFile, source, coveredLength, coveredDeadBytes, entries);
+        } finally {
+          source.close();
+        }
+      } catch (IOException e) {
+        throw toRuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Saves the index with {@link #checkpoint()}, stops the compactor and closes
+   * the data file. Storage can not be used after that. Closing again does nothing.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    compactor.close();
+    if (groupCommitter != null) {
+      groupCommitter.close();
+    }
+    synchronized (compactionLock) {
+      if (closed) {
+        return;
+      }
+      checkpoint();
+      synchronized (fileLock) {
+        closed = true;
+        // It is the compression as well, if compression is on.
+        decompression.close();
+        try {
+          file.close();
+        } catch (IOException e) {
+          throw toRuntimeException(e);
+        }
+      }
+    }
+  }
+
+  long getFileLength() {
+    synchronized (fileLock) {
+      return fileLength;
+    }
+  }
+
+  long getDeadBytes() {
+    synchronized (fileLock) {
+      return deadBytes;
+    }
+  }
+
+  /**
+   * Decrypts the data of the stored entry, and decompresses it, if the data size has the flag.
+   *
+   * @param key    key of the entry
+   * @param data   array with the stored data
+   * @param offset offset of the stored data in the array
+   */
+  private Record decodeRecord(final byte[] key, final byte[] data, final int offset, final int dataSize) {
+    final int length = dataLengthOf(dataSize);
     try {
+      final byte[] decrypted;
+      if (bufferEncryption != null) {
+        decrypted = bufferEncryption.decrypt(key, data, offset, length);
+      } else {
+        decrypted = encryption.decrypt(offset == 0 && length == data.length
+            ? data
+            : Arrays.copyOfRange(data, offset, offset + length));
+      }
       return new Record(
-          encrypted.key,
-          encryption.decrypt(encrypted.data)
+          key,
+          (dataSize & COMPRESSED) != 0 ? decompression.decompress(decrypted) : decrypted
       );
     } catch (Exception e) {
       throw toRuntimeException(e);
     }
   }
 
+  /**
+   * Returns the length of the data of the entry with the given data size.
+   */
+  static int dataLengthOf(final int dataSize) {
+    return dataSize == TOMBSTONE ? 0 : dataSize & ~COMPRESSED;
+  }
+
   private Record getRecordAt(final long position) {
     try {
-      file.seek(position);
-
-      final int keySize = file.readInt();
-      final int dataSize = file.readInt();
+      final int keySize = reader.readInt(position);
+      final int dataSize = reader.readInt(position + 4);
 
       final byte[] keyBytes = new byte[keySize];
-      final byte[] dataBytes = new byte[dataSize];
+      final byte[] dataBytes = new byte[dataLengthOf(dataSize)];
 
-      file.read(keyBytes);
-      file.read(dataBytes);
+      reader.read(position + 8, keyBytes);
+      reader.read(position + 8 + keySize, dataBytes);
 
-      return new Record(keyBytes, dataBytes);
+      return decodeRecord(keyBytes, dataBytes, 0, dataSize);
 
     } catch (IOException e) {
       throw toRuntimeException(e);
     }
   }
 
+  private long entrySizeAt(final long position) throws IOException {
+    final int keySize = reader.readInt(position);
+    final int dataSize = reader.readInt(position + 4);
+
+    return 8 + keySize + dataLengthOf(dataSize);
+  }
+
   private long positionOf(final byte[] key) {
-    final BytesWrapper keyWrapper = new BytesWrapper(key);
-    final Long pos = index.get(keyWrapper);
+    if (CollectionKey.isCollectionKey(key)) {
+      return registry.positionOf(key);
+    }
+    final Long pos = index.get(new BytesWrapper(key));
+    return pos == null ? -1 : pos;
+  }
+
+  /**
+   * Points the key to the new position.
+   *
+   * @return previous position or -1
+   */
+  private long putPosition(final byte[] key, final long position) {
+    if (CollectionKey.isCollectionKey(key)) {
+      return registry.put(key, position);
+    }
+    final Long pos = index.put(new BytesWrapper(key), position);
     return pos == null ? -1 : pos;
   }
 
+  /**
+   * @return removed position or -1
+   */
+  private long removePosition(final byte[] key) {
+    if (CollectionKey.isCollectionKey(key)) {
+      return registry.remove(key);
+    }
+    final Long pos = index.remove(new BytesWrapper(key));
+    return pos == null ? -1 : pos;
+  }
+
+  /**
+   * Restores the index from the snapshot, if it matches the data file,
+   * and replays the entries appended after it.
+   */
   private void remapIndexes() throws Exception {
     synchronized (fileLock) {
-      file.seek(0);
+      final long length = file.length();
+      long pos = 0;
+
+      final IndexSnapshot snapshot = IndexSnapshot.read(dataFile, file);
+      if (snapshot != null) {
+        for (int i = 0; i < snapshot.keys.length; i++) {
+          putPosition(snapshot.keys[i], snapshot.positions[i]);
+        }
+        deadBytes = snapshot.deadBytes;
+        pos = snapshot.coveredLength;
+      }
 
-      while (file.getFilePointer() < file.length()) {
-        final long pos = file.getFilePointer();
+      // Entries are only appended, so a crash may leave a partially written entry
+      // or batch at the end of the file. Replay stops there and the tail is dropped.
+      while (pos + 8 <= length) {
+        file.seek(pos);
         final int keySize = file.readInt();
+        final int dataSize = file.readInt();
 
-        if (keySize == 0) {
+        if (keySize == BATCH_BEGIN) {
+          if (!isCommittedBatchAt(pos, dataSize, length)) {
+            break;
+          }
+          deadBytes += 16;
+          pos += 8;
+          continue;
+        }
+        if (keySize == BATCH_COMMIT) {
+          pos += 8;
+          continue;
+        }
+        if (keySize <= 0
+            || dataSize < TOMBSTONE
+            || pos + 8 + keySize + dataLengthOf(dataSize) > length) {
           break;
         }
 
-        final int dataSize = file.readInt();
         final byte[] key = new byte[keySize];
+        file.readFully(key);
+
+        final long replacedPos;
+        if (dataSize == TOMBSTONE) {
+          replacedPos = removePosition(key);
+          deadBytes += 8 + keySize;
+        } else {
+          replacedPos = putPosition(key, pos);
+        }
+
+        if (replacedPos != -1) {
+          file.seek(replacedPos + 4);
+          deadBytes += 8 + keySize + dataLengthOf(file.readInt());
+        }
+        pos += 8 + keySize + dataLengthOf(dataSize);
+      }
+
+      // Drop the zeroed or torn tail, so that new entries are not followed by garbage.
+      if (pos < length) {
+        file.setLength(pos);
+      }
+      fileLength = pos;
+    }
+  }
+
+  /**
+   * Checks that the batch, which begins at the position, is followed by
+   * the commit marker with the checksum of its entries.
+   */
+  private boolean isCommittedBatchAt(final long position, final int length, final long fileLength)
+      throws IOException {
+    final long commitPos = position + 8 + length;
+    if (length < 0 || commitPos + 8 > fileLength) {
+      return false;
+    }
+
+    file.seek(commitPos);
+    if (file.readInt() != BATCH_COMMIT) {
+      return false;
+    }
+    final int expectedChecksum = file.readInt();
+
+    final CRC32 checksum = new CRC32();
+    final byte[] buffer = new byte[Math.min(length, 64 * 1024)];
+    file.seek(position + 8);
+    int done = 0;
+    while (done < length) {
+      final int count = Math.min(buffer.length, length - done);
+      file.readFully(buffer, 0, count);
+      checksum.update(buffer, 0, count);
+      done += count;
+    }
+
+    return (int) checksum.getValue() == expectedChecksum;
+  }
+
+  /**
+   * Rewrites live entries to a new file and replaces the data file with it.
+   * Live entries are copied without holding the file lock, so that reads and
+   * writes may proceed meanwhile. Only entries appended during the copy are
+   * transferred under the lock, right before the files are swapped.
+   */
+  void compact() throws IOException {
+    synchronized (compactionLock) {
+      if (closed) {
+        return;
+      }
+
+      final List<Map.Entry<BytesWrapper, Long>> liveEntries;
+      final long copiedLength;
+      synchronized (fileLock) {
+        liveEntries = new ArrayList<>(index.entrySet());
+        registry.addEntries(liveEntries);
+        copiedLength = fileLength;
+      }
 
-        // Read key and check if all read.
-        if (file.read(key) != keySize) {
-          throw new RuntimeException("Data is corrupted at " + file.getFilePointer());
+      // Copy in file order, so that the source is read sequentially.
+      Collections.sort(liveEntries, new Comparator<Map.Entry<BytesWrapper, Long>>() {
+        @Override
+        public int compare(final Map.Entry<BytesWrapper, Long> lhs,
+                           final Map.Entry<BytesWrapper, Long> rhs) {
+          return lhs.getValue().compareTo(rhs.getValue());
         }
+      });
+
+      final File compactedFile = new File(dataFile.getPath() + ".compact");
+      final FileOutputStream compactedStream = new FileOutputStream(compactedFile);
+      final OutputStream output = new BufferedOutputStream(compactedStream, 64 * 1024);
+      final RandomAccessFile source = new RandomAccessFile(dataFile, "r");
+
+      final Map<BytesWrapper, Long> compactedIndex = new HashMap<>(liveEntries.size());
+      final Map<BytesWrapper, Integer> entrySizes = new HashMap<>(liveEntries.size());
+      long compactedLength = 0;
+      long liveBytes = 0;
+
+      try {
+        // Entries before copiedLength are never modified, no lock is needed.
+        for (Map.Entry<BytesWrapper, Long> entry : liveEntries) {
+          final byte[] bytes = readEntryAt(source, entry.getValue());
+          output.write(bytes);
+
+          compactedIndex.put(entry.getKey(), compactedLength);
+          entrySizes.put(entry.getKey(), bytes.length);
+          compactedLength += bytes.length;
+          liveBytes += bytes.length;
+        }
+
+        synchronized (fileLock) {
+          // Transfer entries, that were appended while copying.
+          long pos = copiedLength;
+          while (pos < fileLength) {
+            final byte[] bytes = readEntryAt(file, pos);
+            final int keySize = ByteBuffer.wrap(bytes).getInt();
+            // Compacted file is swapped in as a whole, batch markers are not needed there.
+            if (keySize == BATCH_BEGIN || keySize == BATCH_COMMIT) {
+              pos += bytes.length;
+              continue;
+            }
+            final BytesWrapper key = new BytesWrapper(Arrays.copyOfRange(bytes, 8, 8 + keySize));
+            output.write(bytes);
+
+            final Integer replacedSize = entrySizes.remove(key);
+            if (replacedSize != null) {
+              liveBytes -= replacedSize;
+            }
+            if (ByteBuffer.wrap(bytes).getInt(4) == TOMBSTONE) {
+              compactedIndex.remove(key);
+            } else {
+              compactedIndex.put(key, compactedLength);
+              entrySizes.put(key, bytes.length);
+              liveBytes += bytes.length;
+            }
+
+            compactedLength += bytes.length;
+            pos += bytes.length;
+          }
 
-        index.put(new BytesWrapper(key), pos);
+          output.flush();
+          compactedStream.getFD().sync();
+          output.close();
+          source.close();
+          // Positions in the snapshot are about to be outdated.
+          IndexSnapshot.delete(dataFile);
 
-        file.seek(file.getFilePointer() + dataSize);
+          generation++;
+          try {
+            file.close();
+            try {
+              if (!compactedFile.renameTo(dataFile)) {
+                throw new IOException("Failed to replace " + dataFile + " with compacted file");
+              }
+
+              fileLength = compactedLength;
+              deadBytes = compactedLength - liveBytes;
+              // Key set is the same, only positions change.
+              for (Map.Entry<BytesWrapper, Long> entry : compactedIndex.entrySet()) {
+                putPosition(entry.getKey().bytes, entry.getValue());
+              }
+            } finally {
+              file = new RandomAccessFile(dataFile, "rw");
+              reader = openReader();
+            }
+          } finally {
+            if (recordCache != null) {
+              recordCache.clear(generation + 1);
+            }
+            generation++;
+          }
+        }
+      } finally {
+        output.close();
+        source.close();
+        //noinspection ResultOfMethodCallIgnored
+        compactedFile.delete();
       }
     }
   }
 
+  private static byte[] readEntryAt(final RandomAccessFile source, final long position)
+      throws IOException {
+    source.seek(position);
+    final int keySize = source.readInt();
+    final int dataSize = source.readInt();
+
+    final int size = keySize < 0
+        ? 8
+        : 8 + keySize + dataLengthOf(dataSize);
+    final byte[] entry = new byte[size];
+    source.seek(position);
+    source.readFully(entry);
+
+    return entry;
+  }
+
   /**
    * Converts checked exception to runtime exception so that no mandatory try-catch is required.
    */
   private RuntimeException toRuntimeException(Exception e) {
     return new RuntimeException(e);
   }
+
+  /**
+   * Reads live records of a collection front to back through a large buffer,
+   * instead of seeking to each of them. Ranges of the file without live records
+   * are skipped. Positions are taken from the registry when the scan starts:
+   * records updated since then are read by id, and if compaction swaps the file,
+   * the rest of the records are read by id as well.
+   */
+  private class CollectionScan implements Iterator<Record> {
+
+    private final String collection;
+    // Ids of the records interleaved with their positions, ordered by position.
+    private final long[] entries;
+    // Generation of the file, that positions belong to.
+    private final int scanGeneration;
+
+    private int nextIndex;
+    private Record next;
+
+    private byte[] buffer;
+    private long bufferStart;
+
+    CollectionScan(final String collection) {
+      this.collection = collection;
+
+      long[] liveEntries;
+      int startGeneration;
+      while (true) {
+        startGeneration = generation;
+        if ((startGeneration & 1) == 0) {
+          liveEntries = registry.entriesInFileOrder(collection);
+          if (generation == startGeneration) {
+            break;
+          }
+        }
+        Thread.yield();
+      }
+      this.entries = liveEntries;
+      this.scanGeneration = startGeneration;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && nextIndex < entries.length) {
+        final long id = entries[nextIndex];
+        final long pos = entries[nextIndex + 1];
+        nextIndex += 2;
+
+        next = generation == scanGeneration
+            ? readScanned(id, pos)
+            : read(null, collection, id);
+      }
+      return next != null;
+    }
+
+    @Override
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Record record = next;
+      next = null;
+      return record;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private Record readScanned(final long id, final long pos) {
+      final long current = registry.positionOf(collection, id);
+      if (current != pos) {
+        // Updated or removed since the scan started.
+        return current != KeyRegistry.NO_POSITION ? read(null, collection, id) : null;
+      }
+
+      try {
+        if (fill(pos, 8)) {
+          final ByteBuffer header = ByteBuffer.wrap(buffer, (int) (pos - bufferStart), 8);
+          final int keySize = header.getInt();
+          final int dataSize = header.getInt();
+          final int dataLength = dataLengthOf(dataSize);
+          if (keySize <= 0 || dataSize < 0) {
+            throw new IOException("Data is corrupted at " + pos);
+          }
+
+          if (fill(pos, 8 + keySize + dataLength)) {
+            final int offset = (int) (pos - bufferStart) + 8;
+            return decodeRecord(
+                Arrays.copyOfRange(buffer, offset, offset + keySize),
+                buffer,
+                offset + keySize,
+                dataSize
+            );
+          }
+        }
+      } catch (ClosedByInterruptException e) {
+        recoverFrom(e);
+        throw toRuntimeException(e);
+      } catch (ClosedChannelException e) {
+        recoverFrom(e);
+      } catch (IOException e) {
+        if (generation == scanGeneration) {
+          throw toRuntimeException(e);
+        }
+      }
+
+      // File was swapped meanwhile.
+      return read(null, collection, id);
+    }
+
+    /**
+     * Makes the buffer hold the given range of the file, reading the next chunk if needed.
+     *
+     * @return false if the file was swapped, so the buffer can not be used
+     */
+    private boolean fill(final long pos, final int length) throws IOException {
+      if (buffer != null && pos >= bufferStart && pos + length <= bufferStart + buffer.length) {
+        return true;
+      }
+
+      final PositionalReader currentReader = reader;
+      final long available = currentReader.length() - pos;
+      if (length > available) {
+        if (generation != scanGeneration) {
+          return false;
+        }
+        throw new IOException("Data is corrupted at " + pos);
+      }
+
+      final int size = (int) Math.min(Math.max(length, SCAN_BUFFER_SIZE), available);
+      if (buffer == null || buffer.length != size) {
+        buffer = new byte[size];
+      }
+      bufferStart = pos;
+      currentReader.read(pos, buffer);
+      return generation == scanGeneration;
+    }
+  }
+
+  /**
+   * Builder of {@link RandomAccessFileStorage}.
+   */
+  public static class Builder {
+
+    private final File file;
+    private Encryption encryption = Encryption.NO_ENCRYPTION;
+    private float garbageRatio = Compactor.DEFAULT_GARBAGE_RATIO;
+    private long minCompactionSize = Compactor.DEFAULT_MIN_FILE_SIZE;
+    private Executor compactionExecutor;
+    private boolean memoryMapped;
+    private int mappedRegionSize = DEFAULT_MAPPED_REGION_SIZE;
+    private Durability durability = Durability.NONE;
+    private long groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
+    private long groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE;
+    private long recordCacheSize;
+    private boolean compression;
+    private byte[] compressionDictionary;
+
+    public Builder(final File file) {
+      this.file = file;
+    }
+
+    /**
+     * Sets the {@link Encryption} to be used for record data.
+     *
+     * @param encryption encryption to use
+     * @return this builder instance
+     */
+    public Builder encryption(final Encryption encryption) {
+      this.encryption = encryption;
+      return this;
+    }
+
+    /**
+     * Sets the share of dead bytes in the file, after which the
+     * compaction is started automatically. Values above 1 turn automatic
+     * compaction off.
+     *
+     * @param garbageRatio share of dead bytes, from 0 to 1
+     * @return this builder instance
+     */
+    public Builder garbageRatio(final float garbageRatio) {
+      this.garbageRatio = garbageRatio;
+      return this;
+    }
+
+    /**
+     * Sets the minimum file size to be compacted automatically.
+     *
+     * @param minCompactionSize size in bytes
+     * @return this builder instance
+     */
+    public Builder minCompactionSize(final long minCompactionSize) {
+      this.minCompactionSize = minCompactionSize;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Executor}, which runs compaction in background.
+     * By default a single daemon thread is used.
+     *
+     * @param executor executor to run compaction on
+     * @return this builder instance
+     */
+    public Builder compactionExecutor(final Executor executor) {
+      this.compactionExecutor = executor;
+      return this;
+    }
+
+    /**
+     * Makes the storage read records from the memory mapped data file,
+     * without taking the file lock.
+     *
+     * @param memoryMapped whether to map the file into memory
+     * @return this builder instance
+     */
+    public Builder memoryMapped(final boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+      return this;
+    }
+
+    /**
+     * Sets the size of a single mapped region of the data file.
+     *
+     * @param mappedRegionSize size in bytes
+     * @return this builder instance
+     */
+    public Builder mappedRegionSize(final int mappedRegionSize) {
+      this.mappedRegionSize = mappedRegionSize;
+      return this;
+    }
+
+    /**
+     * Sets when writes reach the disk. Default is {@link Durability#NONE}.
+     *
+     * @param durability durability mode
+     * @return this builder instance
+     */
+    public Builder durability(final Durability durability) {
+      this.durability = durability;
+      return this;
+    }
+
+    /**
+     * Sets how long writes may wait for {@link Durability#GROUP_COMMIT}.
+     *
+     * @param groupCommitInterval interval in milliseconds
+     * @return this builder instance
+     */
+    public Builder groupCommitInterval(final long groupCommitInterval) {
+      this.groupCommitInterval = groupCommitInterval;
+      return this;
+    }
+
+    /**
+     * Sets the size of pending writes, which are synced right away
+     * with {@link Durability#GROUP_COMMIT}.
+     *
+     * @param groupCommitSize size in bytes
+     * @return this builder instance
+     */
+    public Builder groupCommitSize(final long groupCommitSize) {
+      this.groupCommitSize = groupCommitSize;
+      return this;
+    }
+
+    /**
+     * Makes the storage keep recently read records in memory, so that repeated
+     * reads of the same record skip the file and decryption. Cached records are
+     * shared between callers, so their data should not be modified.
+     *
+     * @param recordCacheSize size of cached records in bytes, 0 turns caching off
+     * @return this builder instance
+     */
+    public Builder recordCacheSize(final long recordCacheSize) {
+      this.recordCacheSize = recordCacheSize;
+      return this;
+    }
+
+    /**
+     * Makes the storage compress record data with Deflate before encryption.
+     * Only data, which gets smaller, is stored compressed. Records written
+     * before stay readable, but files with compressed records
+     * cannot be read by older versions.
+     *
+     * @param compression whether to compress record data
+     * @return this builder instance
+     */
+    public Builder compression(final boolean compression) {
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * Sets the preset dictionary for {@link #compression(boolean)}, e.g. a typical
+     * encoded item. It improves compression of small records, and it should not be
+     * changed for the same file, as records compressed with it cannot be read without it.
+     *
+     * @param compressionDictionary bytes, which are likely to occur in records
+     * @return this builder instance
+     */
+    public Builder compressionDictionary(final byte[] compressionDictionary) {
+      this.compressionDictionary = compressionDictionary;
+      return this;
+    }
+
+    /**
+     * Opens the storage according to params.
+     *
+     * @return storage instance
+     */
+    public RandomAccessFileStorage build() {
+      return new RandomAccessFileStorage(this);
+    }
+  }
 }
@@ -1,12 +1,11 @@
 package com.noodle.storage;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * Represents and entity in the Storage.
  * Consists of byte array key and data.
- * Key is usually represented as <pre>kind:id</pre>
+ * Keys of collection records are made with {@link CollectionKey}.
  */
 public class Record {
 
@@ -58,18 +57,6 @@ public class Record {
     return result;
   }
 
-  ByteBuffer asByteBuffer() {
-    final ByteBuffer buffer = ByteBuffer.allocate(size());
-    buffer.putInt(key.length)
-        .putInt(data.length)
-        .put(key)
-        .put(data);
-
-    buffer.position(0);
-
-    return buffer;
-  }
-
   @Override
   public String toString() {
     return "Record{" +
@@ -0,0 +1,80 @@
+package com.noodle.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of decrypted records of the {@link RandomAccessFileStorage} by their
+ * position in the data file, limited by the total size of records. The least
+ * recently used records are evicted first.<br/>
+ * Entries at a position never change until compaction, so the cache is only
+ * cleared, when the data file is swapped. Records read from the file before
+ * the swap are not cached after that.
+ */
+class RecordCache {
+
+  // Approximate heap taken by a cache entry besides key and data.
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final long maxBytes;
+  private final LinkedHashMap<Long, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  // Generation of the storage, since which positions are valid.
+  private int minGeneration;
+
+  RecordCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  synchronized Record get(final long position) {
+    return records.get(position);
+  }
+
+  /**
+   * Caches the record, if it was read after the last swap of the data file.
+   */
+  synchronized void put(final long position, final Record record, final int readGeneration) {
+    final long size = sizeOf(record);
+    if (readGeneration - minGeneration < 0 || size > maxBytes) {
+      return;
+    }
+
+    final Record previous = records.put(position, record);
+    if (previous != null) {
+      bytes -= sizeOf(previous);
+    }
+    bytes += size;
+
+    final Iterator<Record> eldest = records.values().iterator();
+    while (bytes > maxBytes) {
+      bytes -= sizeOf(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  synchronized void remove(final long position) {
+    final Record removed = records.remove(position);
+    if (removed != null) {
+      bytes -= sizeOf(removed);
+    }
+  }
+
+  /**
+   * Drops all records, when positions change.
+   *
+   * @param newGeneration generation of the storage, since which records may be cached again
+   */
+  synchronized void clear(final int newGeneration) {
+    records.clear();
+    bytes = 0;
+    minGeneration = newGeneration;
+  }
+
+  synchronized long size() {
+    return bytes;
+  }
+
+  private static long sizeOf(final Record record) {
+    return ENTRY_OVERHEAD + record.key.length + record.data.length;
+  }
+}
@@ -0,0 +1,175 @@
+package com.noodle.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of the data of records in the {@link RandomAccessFileStorage}.
+ * Compressed data is <pre>[original length][zlib stream]</pre>, and it is stored
+ * only if it is smaller than the original, so entries are marked with the
+ * {@link RandomAccessFileStorage#COMPRESSED} flag of their data size.<br/>
+ * An optional preset dictionary, i.e. a typical record, lets small records
+ * refer to the field names and values it contains. Zlib streams carry the checksum
+ * of their dictionary, so data compressed with another dictionary is detected.
+ * Deflaters and inflaters are pooled rather than kept by each thread, so that
+ * short-lived threads do not hold native zlib memory until finalization.
+ * Pooled ones are ended on {@link #close()}.
+ */
+class RecordCompression {
+
+  // Smaller data gets no benefit from compression.
+  static final int MIN_COMPRESSED_SIZE = 64;
+
+  // Extra deflaters and inflaters of concurrent calls are ended, when released.
+  private static final int MAX_POOLED = 4;
+
+  private final byte[] dictionary;
+
+  private final ArrayDeque<Deflater> deflaters = new ArrayDeque<>();
+  private final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+  private boolean closed;
+
+  // Output of deflate, which is copied into an array of the exact size.
+  private final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+  RecordCompression(final byte[] dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * Compresses the given length of the data.
+   *
+   * @return compressed data, or null if it is not smaller than the original
+   */
+  byte[] compress(final byte[] data, final int length) {
+    if (length < MIN_COMPRESSED_SIZE) {
+      return null;
+    }
+
+    byte[] buffer = buffers.get();
+    if (buffer == null || buffer.length < length) {
+      buffer = new byte[Math.max(length, 1024)];
+      if (buffer.length <= RandomAccessFileStorage.MAX_RETAINED_ENTRY_BUFFER_SIZE) {
+        buffers.set(buffer);
+      }
+    }
+
+    final Deflater deflater = acquireDeflater();
+    // Length prefix is written last, compressed data must leave room for it.
+    final int limit = length - 4;
+    int compressedLength = 0;
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      while (!deflater.finished() && compressedLength < limit) {
+        compressedLength += deflater.deflate(buffer, 4 + compressedLength, limit - compressedLength);
+      }
+      if (!deflater.finished()) {
+        return null;
+      }
+    } finally {
+      release(deflater);
+    }
+
+    final byte[] result = new byte[4 + compressedLength];
+    ByteBuffer.wrap(result).putInt(length);
+    System.arraycopy(buffer, 4, result, 4, compressedLength);
+    return result;
+  }
+
+  /**
+   * Restores the data compressed with {@link #compress(byte[], int)}.
+   */
+  byte[] decompress(final byte[] data) throws IOException {
+    final int length = data.length >= 4 ? ByteBuffer.wrap(data).getInt() : -1;
+    // Deflate does not expand data more than 1032 times, check before allocating.
+    if (length < 0 || length > 1032L * data.length) {
+      throw new IOException("Compressed data is corrupted");
+    }
+
+    final Inflater inflater = acquireInflater();
+    final byte[] result = new byte[length];
+    try {
+      inflater.setInput(data, 4, data.length - 4);
+      int done = 0;
+      while (!inflater.finished()) {
+        final int count = done < length
+            ? inflater.inflate(result, done, length - done)
+            : inflater.inflate(new byte[1]);
+        if (count > 0) {
+          if (done >= length) {
+            throw new IOException("Compressed data is longer than expected");
+          }
+          done += count;
+        } else if (inflater.needsDictionary()) {
+          if (dictionary == null) {
+            throw new IOException("Data is compressed with a dictionary, which is not set");
+          }
+          inflater.setDictionary(dictionary);
+        } else if (inflater.needsInput()) {
+          throw new IOException("Compressed data is truncated");
+        }
+      }
+      if (done != length) {
+        throw new IOException("Compressed data is shorter than expected");
+      }
+    } catch (DataFormatException | IllegalArgumentException e) {
+      // Dictionary with another checksum is rejected with IllegalArgumentException.
+      throw new IOException("Compressed data is corrupted or its dictionary differs", e);
+    } finally {
+      release(inflater);
+    }
+    return result;
+  }
+
+  /**
+   * Ends pooled deflaters and inflaters, and the ones released later.
+   * Called, when the storage is closed.
+   */
+  synchronized void close() {
+    closed = true;
+    for (Deflater deflater : deflaters) {
+      deflater.end();
+    }
+    deflaters.clear();
+    for (Inflater inflater : inflaters) {
+      inflater.end();
+    }
+    inflaters.clear();
+  }
+
+  private synchronized Deflater acquireDeflater() {
+    final Deflater deflater = deflaters.poll();
+    return deflater != null ? deflater : new Deflater();
+  }
+
+  private synchronized void release(final Deflater deflater) {
+    if (closed || deflaters.size() >= MAX_POOLED) {
+      deflater.end();
+    } else {
+      deflater.reset();
+      deflaters.push(deflater);
+    }
+  }
+
+  private synchronized Inflater acquireInflater() {
+    final Inflater inflater = inflaters.poll();
+    return inflater != null ? inflater : new Inflater();
+  }
+
+  private synchronized void release(final Inflater inflater) {
+    if (closed || inflaters.size() >= MAX_POOLED) {
+      inflater.end();
+    } else {
+      inflater.reset();
+      inflaters.push(inflater);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.noodle.storage;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -17,6 +18,35 @@ public interface Storage {
    */
   void put(Record record);
 
+  /**
+   * Puts the record of the collection by its id, without making its key. Key of
+   * the record is made with {@link CollectionKey}. Only the given length of the data
+   * is stored, so that it may be a reused buffer.
+   *
+   * @param collection name of the collection
+   * @param id         id of the record
+   * @param data       data of the record
+   * @param length     length of the data
+   */
+  void put(String collection, long id, byte[] data, int length);
+
+  /**
+   * Puts all records to a storage atomically. Records replace stored ones
+   * with the same keys, as with {@link #put(Record)}, and later records
+   * in the list replace earlier ones.
+   *
+   * @param records to put to a storage
+   */
+  void putAll(List<Record> records);
+
+  /**
+   * Applies puts and removals of the batch in their order atomically:
+   * after a crash either all of them are in the storage, or none.
+   *
+   * @param batch operations to apply
+   */
+  void write(Batch batch);
+
   /**
    * Removes the record from a storage. If it's not present returns
    * null.
@@ -34,6 +64,26 @@ public interface Storage {
    */
   Record get(byte[] key);
 
+  /**
+   * Fetch record of the collection by its id. Key of the record
+   * is made with {@link CollectionKey}. May return null if not found.
+   *
+   * @param collection name of the collection
+   * @param id         id of the record
+   * @return record or null
+   */
+  Record get(String collection, long id);
+
+  /**
+   * Returns records of the collection, which keys are made with {@link CollectionKey},
+   * in the order they are stored. Records are read lazily while iterating, records
+   * removed meanwhile are skipped, and records put meanwhile may be missed.
+   *
+   * @param collection name of the collection
+   * @return iterator over records of the collection
+   */
+  Iterator<Record> iterate(String collection);
+
   /**
    * Returns all keys, that have given prefix.
    *
@@ -42,4 +92,33 @@ public interface Storage {
    */
   List<byte[]> prefixedWith(byte[] prefix);
 
+  /**
+   * Returns keys, which are not collection keys, from the given one inclusive
+   * to the other exclusive. Keys are compared byte by byte as unsigned.
+   *
+   * @param from lower bound of keys, inclusive
+   * @param to   upper bound of keys, exclusive
+   * @return List of keys in ascending order
+   */
+  List<byte[]> keysInRange(byte[] from, byte[] to);
+
+  /**
+   * Returns the number of records in the collection, which keys
+   * are made with {@link CollectionKey}.
+   *
+   * @param collection name of the collection
+   * @return number of records in the collection
+   */
+  int count(String collection);
+
+  /**
+   * Returns the maximum id of the records in the collection, which keys
+   * are made with {@link CollectionKey}. Ids of removed records may still
+   * be taken into account, until the storage is reopened.
+   *
+   * @param collection name of the collection
+   * @return maximum id or 0, if collection is empty
+   */
+  long maxId(String collection);
+
 }
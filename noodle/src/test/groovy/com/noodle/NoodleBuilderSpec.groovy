@@ -4,6 +4,7 @@ import android.content.Context
 import com.noodle.collection.Converter
 import com.noodle.storage.Encryption
 import com.noodle.util.AnnotatedData
+import com.noodle.util.Book
 import com.noodle.util.Data
 import com.noodle.util.DoubleIdData
 import org.robolectric.RuntimeEnvironment
@@ -81,4 +82,13 @@ class NoodleBuilderSpec extends RoboSpecification {
     thrown RuntimeException
   }
 
+  def "should register indexed fields of annotated type"() {
+    when:
+    def newNoodle = Noodle.with(context)
+        .addType(Book)
+        .build()
+
+    then:
+    newNoodle.descriptionHashMap[Book.simpleName].indexedFields.sort() == ["author", "year"]
+  }
 }
@@ -142,4 +142,47 @@ class NoodleSpec extends RoboSpecification {
     1 * mockStorage.remove(noodle.keyValueKey(key)) >> null
   }
 
+  def "should commit transaction"() {
+    given:
+    noodle.registerType(Description.of(Data).withIdField("id").build())
+    def collection = noodle.collectionOf(Data)
+    def existing = collection.put(new Data(name: "existing"))
+    def added = new Data(name: "added")
+
+    when:
+    noodle.transaction(new Transaction.Body() {
+      @Override
+      void run(Transaction transaction) {
+        transaction.put(Data, added)
+        transaction.delete(Data, existing.id)
+        transaction.put("key", "value")
+      }
+    }).value()
+
+    then:
+    added.id != 0
+    collection.get(added.id).name == "added"
+    collection.get(existing.id) == null
+    noodle.get("key", String).value() == "value"
+  }
+
+  def "should not write anything if transaction fails"() {
+    given:
+    def mockStorage = Mock(Storage)
+    noodle.storage = mockStorage
+
+    when:
+    noodle.transaction(new Transaction.Body() {
+      @Override
+      void run(Transaction transaction) {
+        transaction.put("key", "value")
+        throw new IllegalStateException()
+      }
+    }).value()
+
+    then:
+    thrown RuntimeException
+    0 * mockStorage.write(_)
+    0 * mockStorage.put(_)
+  }
 }
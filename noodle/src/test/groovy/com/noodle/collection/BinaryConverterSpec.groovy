@@ -0,0 +1,74 @@
+package com.noodle.collection
+
+import com.google.gson.Gson
+import com.noodle.util.Book
+import com.noodle.util.Data
+import org.robospock.RoboSpecification
+
+class BinaryConverterSpec extends RoboSpecification {
+
+  BinaryConverter converter = new BinaryConverter()
+
+  def "should convert items with the generated codec"() {
+    given:
+    def book = new Book(id: -42, author: "Stanisław Lem", year: 1961, title: null)
+
+    when:
+    def bytes = converter.toBytes(book)
+    def result = converter.fromBytes(bytes, Book)
+
+    then:
+    result.id == -42
+    result.author == "Stanisław Lem"
+    result.year == 1961
+    result.title == null
+    bytes.length < new GsonConverter(new Gson()).toBytes(book).length
+  }
+
+  def "should skip unknown fields"() {
+    given:
+    def writer = new BinaryWriter()
+    writer.writeLong(BinaryWriter.tagOf("id"), 7)
+    writer.writeList(BinaryWriter.tagOf("tags"), ["a", null, 3L])
+    writer.writeDouble(BinaryWriter.tagOf("rating"), 4.5d)
+    writer.writeBytes(BinaryWriter.tagOf("cover"), [1, 2] as byte[])
+    writer.writeString(BinaryWriter.tagOf("title"), "Solaris")
+
+    when:
+    def result = converter.fromBytes(writer.toByteArray(), Book)
+
+    then:
+    result.id == 7
+    result.title == "Solaris"
+  }
+
+  def "should read fields without decoding"() {
+    given:
+    def bytes = converter.toBytes(new Book(id: 1, author: "Lem", year: 1961, title: "Solaris"))
+    def values = new Object[3]
+
+    when:
+    converter.readFields(bytes, ["year", "missing", "author"] as String[], values)
+
+    then:
+    values[0] == 1961L
+    values[1] == null
+    values[2] == "Lem"
+  }
+
+  def "should convert plain values"() {
+    expect:
+    converter.fromBytes(converter.toBytes(value), value.getClass()) == value
+
+    where:
+    value << ["Nougat", 25L, 7, 1.5d, true]
+  }
+
+  def "should fail without codec"() {
+    when:
+    new BinaryConverter().toBytes(new Data())
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+}
@@ -0,0 +1,105 @@
+package com.noodle.collection
+
+import org.robospock.RoboSpecification
+
+class EntityCacheSpec extends RoboSpecification {
+
+  private EntityCache<String> cache = new EntityCache<>(2)
+
+  def "should evict least recently used item"() {
+    given:
+    cache.put(1, "one", cache.version(1))
+    cache.put(2, "two", cache.version(2))
+
+    when:
+    cache.get(1)
+    cache.put(3, "three", cache.version(3))
+
+    then:
+    cache.size() == 2
+    cache.get(1) == "one"
+    cache.get(2) == null
+    cache.get(3) == "three"
+  }
+
+  def "should count hits and misses"() {
+    given:
+    cache.put(1, "one", cache.version(1))
+
+    when:
+    cache.get(1)
+    cache.get(1)
+    cache.get(2)
+
+    then:
+    cache.hitCount == 2
+    cache.missCount == 1
+  }
+
+  def "should not cache item read before invalidation"() {
+    given:
+    def version = cache.version(1)
+
+    when:
+    cache.invalidate(1)
+    cache.put(1, "outdated", version)
+
+    then:
+    cache.get(1) == null
+  }
+
+  def "should keep large cache within its size"() {
+    given:
+    def large = new EntityCache<String>(100)
+
+    when:
+    (1..1000).each { large.put(it, String.valueOf(it), large.version(it)) }
+
+    then:
+    large.size() <= 100
+    large.size() > 50
+    large.get(1000) == "1000"
+  }
+
+  def "should invalidate items of all segments"() {
+    given:
+    def large = new EntityCache<String>(100)
+    def versions = (1..50).collect { large.version(it) }
+
+    when:
+    large.invalidateAll()
+    (1..50).each { large.put(it, "outdated", versions[it - 1]) }
+
+    then:
+    large.size() == 0
+  }
+
+  def "should count hits of concurrent readers"() {
+    given:
+    def large = new EntityCache<String>(1000)
+    (1..100).each { large.put(it, String.valueOf(it), large.version(it)) }
+    def errors = Collections.synchronizedList([])
+
+    when:
+    def readers = (1..4).collect {
+      Thread.start {
+        try {
+          10000.times {
+            def id = it % 100 + 1
+            if (large.get(id) != String.valueOf(id)) {
+              errors << "missed $id"
+            }
+          }
+        } catch (Throwable e) {
+          errors << e
+        }
+      }
+    }
+    readers*.join(10000)
+
+    then:
+    errors.isEmpty()
+    large.hitCount == 40000
+    large.missCount == 0
+  }
+}
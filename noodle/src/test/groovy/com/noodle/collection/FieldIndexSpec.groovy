@@ -0,0 +1,39 @@
+package com.noodle.collection
+
+import com.noodle.storage.BytesWrapper
+import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+class FieldIndexSpec extends RoboSpecification {
+
+  @Unroll
+  def "should encode #lower of #type before #higher"(Class type, Object lower, Object higher) {
+    when:
+    def lowerBytes = new BytesWrapper(FieldIndex.encode(lower, type))
+    def higherBytes = new BytesWrapper(FieldIndex.encode(higher, type))
+
+    then:
+    lowerBytes < higherBytes
+
+    where:
+    type          | lower  | higher
+    Long.TYPE     | -5L    | 3L
+    Long.TYPE     | 3L     | 300L
+    Integer.TYPE  | -1     | 0
+    Long.TYPE     | 1      | 2L
+    Double.TYPE   | -2.5d  | -1.5d
+    Double.TYPE   | -0.5d  | 0.5d
+    Double.TYPE   | 1      | 1.5d
+    Boolean.TYPE  | false  | true
+    String        | "a"    | "ab"
+    String        | "a\u0000" | "a\u0001"
+    String        | "z"    | "ä"
+    String        | null   | ""
+  }
+
+  def "should encode numbers by field type"() {
+    expect:
+    FieldIndex.encode(5, Long.TYPE) == FieldIndex.encode(5L, Long.TYPE)
+    FieldIndex.encode(5, Double.TYPE) == FieldIndex.encode(5.0d, Double.TYPE)
+  }
+}
@@ -5,6 +5,8 @@ import com.google.gson.GsonBuilder
 import com.noodle.collection.GsonConverter
 import org.robospock.RoboSpecification
 
+import java.nio.charset.Charset
+
 /**
  *
  */
@@ -35,4 +37,45 @@ class GsonConverterSpec extends RoboSpecification {
     s == converter.fromBytes(bytes, String)
 
   }
+
+  def "should write UTF-8 regardless of platform charset"() {
+    given:
+    def s = "Zażółć gęślą jaźń \uD83C\uDF5C"
+
+    expect:
+    converter.toBytes(s) == gson.toJson(s).getBytes("UTF-8")
+    converter.fromBytes(converter.toBytes(s), String) == s
+  }
+
+  def "should read items written in platform charset by earlier versions"() {
+    given:
+    def legacyConverter = new GsonConverter(gson, Charset.forName("ISO-8859-1"))
+    def map = [author: "Gérard de Nerval", title: "Aurélia"]
+    def bytes = gson.toJson(map).getBytes("ISO-8859-1")
+    def values = new Object[1]
+
+    when:
+    def result = legacyConverter.fromBytes(bytes, Map)
+    legacyConverter.readFields(bytes, ["author"] as String[], values)
+
+    then:
+    result == map
+    values[0] == "Gérard de Nerval"
+    legacyConverter.fromBytes(legacyConverter.toBytes(map), Map) == map
+  }
+
+  def "should write to streams"() {
+    given:
+    def output = new ByteArrayOutputStream()
+    def map = [title: "Solaris", year: 1961]
+
+    when:
+    converter.write(map, output)
+    def result = converter.fromBytes(output.toByteArray(), Map)
+
+    then:
+    output.toByteArray() == converter.toBytes(map)
+    result.title == "Solaris"
+    result.year == 1961
+  }
 }
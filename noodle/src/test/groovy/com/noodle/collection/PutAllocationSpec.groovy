@@ -0,0 +1,54 @@
+package com.noodle.collection
+
+import com.noodle.Description
+import com.noodle.storage.RandomAccessFileStorage
+import com.noodle.util.Allocations
+import com.noodle.util.Book
+import org.robospock.RoboSpecification
+import spock.lang.Requires
+
+/**
+ * Measures heap allocations of steady state puts, which update stored items.
+ */
+class PutAllocationSpec extends RoboSpecification {
+
+  private static final int WARM_UP_PUTS = 20000
+  private static final int MEASURED_PUTS = 10000
+
+  private File file
+  private RandomAccessFileStorage storage
+  private StoredConvertedCollection<Book> collection
+
+  void setup() {
+    file = new File("put-allocation-test.noodle")
+    // Compaction is off, so that only puts are measured.
+    storage = new RandomAccessFileStorage.Builder(file)
+        .minCompactionSize(Long.MAX_VALUE)
+        .build()
+  }
+
+  void cleanup() {
+    storage.close()
+    file.delete()
+  }
+
+  @Requires({ Allocations.isSupported() })
+  def "should not allocate on put with binary converter"() {
+    given:
+    def converter = new BinaryConverter()
+    collection = new StoredConvertedCollection<Book>(Book,
+        Description.of(Book).withIdField("id").build(),
+        converter,
+        storage)
+    def book = collection.put(new Book(author: "Stanisław Lem", year: 1961, title: "Solaris"))
+    Allocations.bytesPerPut(collection, book, WARM_UP_PUTS)
+
+    when:
+    def bytesPerPut = Allocations.bytesPerPut(collection, book, MEASURED_PUTS)
+
+    then:
+    bytesPerPut >= 0
+    assert bytesPerPut < 16, "allocated $bytesPerPut bytes per put"
+    collection.get(book.id).title == "Solaris"
+  }
+}
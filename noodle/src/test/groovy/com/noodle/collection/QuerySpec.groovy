@@ -0,0 +1,121 @@
+package com.noodle.collection
+
+import com.google.gson.Gson
+import com.noodle.Description
+import com.noodle.storage.Encryption
+import com.noodle.storage.RandomAccessFileStorage
+import com.noodle.util.Author
+import com.noodle.util.Book
+import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+class QuerySpec extends RoboSpecification {
+
+  private File file = new File("query-test.noodle")
+  private GsonConverter converter = Spy(GsonConverter, constructorArgs: [new Gson()])
+  private StoredConvertedCollection<Book> books
+
+  void setup() {
+    books = collectionWith(converter)
+    books.putAll([
+        new Book(author: "X", year: 1999),
+        new Book(author: "Y", year: 2005),
+        new Book(author: "X", year: 2010),
+        new Book(author: null, year: 2001),
+        new Book(author: "X", year: 2003)
+    ])
+  }
+
+  void cleanup() {
+    file.delete()
+  }
+
+  @Unroll
+  def "should find items #description"(String description, Closure query, List<Integer> years) {
+    expect:
+    query(books).find()*.year == years
+
+    where:
+    description             | query                                                                   | years
+    "by equality"           | { it.where("author").eq("X") }                                          | [1999, 2010, 2003]
+    "with null value"       | { it.where("author").eq(null) }                                         | [2001]
+    "by range"              | { it.where("year").gt(2000).and("year").le(2005L) }                     | [2005, 2001, 2003]
+    "by several fields"     | { it.where("author").eq("X").and("year").ge(2003.0) }                   | [2010, 2003]
+    "in order"              | { it.where("year").gt(0).orderBy("year") }                              | [1999, 2001, 2003, 2005, 2010]
+    "in descending order"   | { it.where("author").eq("X").orderByDescending("year") }                | [2010, 2003, 1999]
+    "with offset and limit" | { it.where("year").lt(2006).offset(1).limit(2) }                        | [2005, 2001]
+    "in order with limit"   | { it.where("author").lt("Y").orderBy("year").offset(1).limit(5) }       | [2003, 2010]
+  }
+
+  def "should decode only matching items"() {
+    when:
+    def found = books.where("author").eq("Y").find()
+
+    then:
+    found*.year == [2005]
+    1 * converter.fromBytes(_, Book)
+  }
+
+  def "should stop reading, when limit is reached"() {
+    when:
+    def found = books.where("author").eq("X").limit(1).find()
+
+    then:
+    found*.year == [1999]
+    1 * converter.fromBytes(_, Book)
+  }
+
+  def "should find items with converter, that can not read fields"() {
+    given:
+    def plainConverter = plainConverterOf(converter)
+
+    expect:
+    collectionWith(plainConverter).where("author").eq("X").and("year").gt(2000).find()*.year == [2010, 2003]
+  }
+
+  @Unroll
+  def "should find items by Java names of fields with @SerializedName #description"() {
+    given:
+    def authors = collectionWith(Author, fieldConverter ? converter : plainConverterOf(converter))
+    authors.putAll([
+        new Author(name: "Lem", birthYear: 1921),
+        new Author(name: "Strugatsky", birthYear: 1925),
+        new Author(name: "Bradbury", birthYear: 1920)
+    ])
+
+    expect:
+    authors.where("name").eq("Lem").find()*.birthYear == [1921]
+    authors.where("birthYear").ge(1921).orderBy("birthYear").find()*.name == ["Lem", "Strugatsky"]
+    authors.where("full_name").eq("Lem").find().isEmpty()
+
+    where:
+    description                 | fieldConverter
+    "with field reader"         | true
+    "with reflection"           | false
+  }
+
+  private static Converter plainConverterOf(final Converter converter) {
+    return new Converter() {
+      @Override
+      public <T> byte[] toBytes(final T t) {
+        return converter.toBytes(t)
+      }
+
+      @Override
+      public <T> T fromBytes(final byte[] bytes, final Class<T> clazz) {
+        return converter.fromBytes(bytes, clazz)
+      }
+    }
+  }
+
+  private StoredConvertedCollection<Book> collectionWith(final Converter converter) {
+    return collectionWith(Book, converter)
+  }
+
+  private <T> StoredConvertedCollection<T> collectionWith(final Class<T> clazz, final Converter converter) {
+    return new StoredConvertedCollection<T>(clazz,
+        Description.of(clazz).withIdField("id").build(),
+        converter,
+        new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION))
+  }
+}
@@ -2,11 +2,19 @@ package com.noodle.collection
 
 import com.google.gson.Gson
 import com.noodle.Description
+import com.noodle.storage.Batch
 import com.noodle.storage.Encryption
 import com.noodle.storage.RandomAccessFileStorage
+import com.noodle.storage.Record
 import com.noodle.storage.Storage
+import com.noodle.util.Book
 import com.noodle.util.Data
 import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 class StoredConvertedCollectionSpec extends RoboSpecification {
 
@@ -219,4 +227,296 @@ class StoredConvertedCollectionSpec extends RoboSpecification {
     then:
     newCollection.sequenceId.get() == 5
   }
+
+  def "should not count items of collection with longer name"() {
+    given:
+    def otherDescription = Description.of(Data)
+        .withIdField("id")
+        .withCollectionName("database")
+        .build()
+    def otherCollection = new StoredConvertedCollection<Data>(Data,
+        otherDescription,
+        converter,
+        storage)
+
+    when:
+    collection.putAsync(new Data(name: "in data")).value()
+    otherCollection.putAsync(new Data(name: "in database")).value()
+
+    then:
+    collection.countAsync().value() == 1
+    collection.getAllAsync().value()*.name == ["in data"]
+  }
+
+  def "should migrate records with legacy keys"() {
+    given:
+    def items = (1..5).collect { new Data(id: it, name: "legacy $it") }
+    items.each {
+      storage.put(new Record("data:${it.id}".bytes, converter.toBytes(it)))
+    }
+
+    when:
+    def migrated = new StoredConvertedCollection<Data>(Data,
+        description,
+        converter,
+        storage)
+
+    then:
+    migrated.count() == 5
+    migrated.get(3) == items[2]
+    migrated.sequenceId.get() == 5
+    storage.prefixedWith("data:".bytes).isEmpty()
+  }
+
+  def "should cache items got by id"() {
+    given:
+    collection = new StoredConvertedCollection<Data>(Data, description, converter, storage, 10)
+    def item = collection.put(new Data(name: "cached"))
+
+    when:
+    def first = collection.get(item.id)
+    def second = collection.get(item.id)
+
+    then:
+    first.is(second)
+    collection.cache.hitCount == 1
+    collection.cache.missCount == 1
+  }
+
+  @Unroll
+  def "should invalidate cached items on #operation"(String operation, Closure change, String expected) {
+    given:
+    collection = new StoredConvertedCollection<Data>(Data, description, converter, storage, 10)
+    def item = collection.put(new Data(name: "cached"))
+    collection.get(item.id)
+
+    when:
+    change(collection, item)
+
+    then:
+    collection.get(item.id)?.name == expected
+
+    where:
+    operation | change                                                     | expected
+    "put"     | { c, item -> c.put(new Data(id: item.id, name: "updated")) } | "updated"
+    "putAll"  | { c, item -> c.putAll([new Data(id: item.id, name: "all")]) } | "all"
+    "delete"  | { c, item -> c.delete(item.id) }                             | null
+    "clear"   | { c, item -> c.clear() }                                     | null
+  }
+
+  def "should iterate items in the order they are stored"() {
+    given:
+    def items = collection.putAll((1..5).collect { new Data(name: "item $it") })
+    collection.put(new Data(id: items[1].id, name: "updated"))
+    collection.delete(items[3].id)
+
+    when:
+    def names = collection.cursor().collect { it.name }
+
+    then:
+    names == ["item 1", "item 3", "item 5", "updated"]
+  }
+
+  def "should iterate items, that satisfy predicate, until stopped"() {
+    given:
+    collection.putAll((1..10).collect { new Data(name: "item $it") })
+    def cursor = collection.cursor({ it.id % 2 == 0 } as Collection.Predicate)
+
+    when:
+    def first = cursor.next()
+    def second = cursor.next()
+
+    then:
+    first.name == "item 2"
+    second.name == "item 4"
+    cursor.hasNext()
+  }
+
+  def "should emit items to Flowable as requested"() {
+    given:
+    collection.putAll((1..10).collect { new Data(name: "item $it") })
+
+    when:
+    def subscriber = collection.toRxFlowable().test(3)
+
+    then:
+    subscriber.assertValueCount(3)
+    subscriber.assertNotComplete()
+
+    when:
+    subscriber.request(10)
+
+    then:
+    subscriber.assertValueCount(10)
+    subscriber.assertComplete()
+  }
+
+  def "should filter items in parallel in the same order"() {
+    given:
+    def executor = Executors.newFixedThreadPool(4)
+    def items = (1..1000).collect { new Data(name: "item $it") }
+    collection.putAll(items)
+    collection.put(new Data(id: items[0].id, name: "item 0"))
+    def predicate = { it.name.endsWith("0") } as Collection.Predicate<Data>
+
+    when:
+    def filtered = collection.filter(predicate, executor)
+
+    then:
+    filtered == collection.filter(predicate)
+    filtered.size() == 101
+    collection.getAll(executor) == collection.getAll()
+
+    cleanup:
+    executor.shutdown()
+  }
+
+  def "should rethrow error of parallel filter"() {
+    given:
+    def executor = Executors.newFixedThreadPool(4)
+    collection.putAll((1..1000).collect { new Data(name: "item $it") })
+
+    when:
+    collection.filter({ throw new IllegalStateException("Failed") } as Collection.Predicate<Data>, executor)
+
+    then:
+    thrown(IllegalStateException)
+
+    cleanup:
+    executor.shutdown()
+  }
+
+  def "should filter in parallel on the executor, that runs the filter itself"() {
+    given:
+    def executor = Executors.newSingleThreadExecutor()
+    collection.putAll((1..1000).collect { new Data(name: "item $it") })
+    def predicate = { it.name.endsWith("0") } as Collection.Predicate<Data>
+
+    when:
+    def filtered = executor.submit({
+      collection.filter(predicate, executor)
+    } as Callable<List<Data>>).get(10, TimeUnit.SECONDS)
+
+    then:
+    filtered == collection.filter(predicate)
+
+    cleanup:
+    executor.shutdown()
+  }
+
+  def "should find items by indexed field"() {
+    given:
+    def books = booksCollection()
+    books.putAll([
+        new Book(author: "X", year: 1999),
+        new Book(author: "Y", year: 2005),
+        new Book(author: "X", year: 2010),
+        new Book(author: null, year: -1)
+    ])
+
+    expect:
+    books.findBy("author", "X")*.year == [1999, 2010]
+    books.findBy("author", null)*.year == [-1]
+    books.findBy("year", 2005L)*.author == ["Y"]
+    books.range("year", 2000, null)*.year == [2005, 2010]
+    books.range("year", null, 2005)*.year == [-1, 1999]
+    books.range("author", "X", "Y")*.year == [1999, 2010]
+  }
+
+  def "should update index on put and delete"() {
+    given:
+    def books = booksCollection()
+    def first = books.put(new Book(author: "X", year: 1999))
+    def second = books.put(new Book(author: "X", year: 2005))
+
+    when:
+    books.put(new Book(id: first.id, author: "Y", year: 1999))
+    books.delete(second.id)
+
+    then:
+    books.findBy("author", "X").isEmpty()
+    books.findBy("author", "Y")*.id == [first.id]
+  }
+
+  def "should remove index entries of items staged earlier in the same batch"() {
+    given:
+    def books = booksCollection()
+    def book = books.put(new Book(author: "X", year: 1999))
+    def deleted = books.put(new Book(author: "X", year: 2005))
+    def batch = new Batch()
+
+    when:
+    books.stagePut(batch, new Book(id: book.id, author: "Y", year: 1999))
+    books.stagePut(batch, new Book(id: book.id, author: "Z", year: 1999))
+    books.stagePut(batch, new Book(id: deleted.id, author: "Y", year: 2005))
+    books.stageDelete(batch, deleted.id)
+    storage.write(batch)
+
+    then:
+    indexEntriesOf(books, "author") == 1
+    indexEntriesOf(books, "year") == 1
+    books.findBy("author", "Z")*.id == [book.id]
+    books.findBy("author", "Y").isEmpty()
+  }
+
+  def "should keep single index entry of item put concurrently"() {
+    given:
+    def books = booksCollection()
+    def id = books.put(new Book(author: "A", year: 1999)).id
+    def errors = Collections.synchronizedList([])
+
+    when:
+    def writers = (1..4).collect { writer ->
+      Thread.start {
+        try {
+          200.times {
+            books.put(new Book(id: id, author: "Author $writer $it", year: it))
+          }
+        } catch (Throwable e) {
+          errors << e
+        }
+      }
+    }
+    writers*.join(10000)
+
+    then:
+    errors.isEmpty()
+    indexEntriesOf(books, "author") == 1
+    indexEntriesOf(books, "year") == 1
+  }
+
+  def "should build index of existing items"() {
+    given:
+    def plainDescription = Description.of(Book).withIdField("id").build()
+    new StoredConvertedCollection<Book>(Book, plainDescription, converter, storage)
+        .putAll([new Book(author: "X", year: 1999), new Book(author: "Y", year: 2005)])
+
+    when:
+    def books = booksCollection()
+
+    then:
+    books.findBy("author", "Y")*.year == [2005]
+  }
+
+  def "should not find items by field, that is not indexed"() {
+    when:
+    booksCollection().findBy("title", "Noodle")
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  private StoredConvertedCollection<Book> booksCollection() {
+    def bookDescription = Description.of(Book)
+        .withIdField("id")
+        .withIndexedField("author")
+        .withIndexedField("year")
+        .build()
+    return new StoredConvertedCollection<Book>(Book, bookDescription, converter, storage)
+  }
+
+  private int indexEntriesOf(final StoredConvertedCollection<Book> books, final String field) {
+    def index = books.indexes[field]
+    return storage.prefixedWith(index.markerKey()).count { index.isEntryKey(it) }
+  }
 }
@@ -0,0 +1,117 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+import java.security.GeneralSecurityException
+
+class AesGcmEncryptionSpec extends RoboSpecification {
+
+  private static final byte[] KEY = (1..32).collect { it as byte } as byte[]
+
+  private AesGcmEncryption encryption = new AesGcmEncryption(KEY)
+  private File file = new File("test.noodle")
+
+  void cleanup() {
+    file.delete()
+    IndexSnapshot.fileOf(file).delete()
+  }
+
+  private static byte[] dataOf(int length) {
+    def data = new byte[length]
+    new Random(length).nextBytes(data)
+    data
+  }
+
+  def "should decrypt data of any number of chunks"() {
+    given:
+    def data = dataOf(length)
+
+    when:
+    def encrypted = encryption.encrypt(data)
+
+    then:
+    encrypted.length == encryption.encryptedLength(length)
+    encryption.decrypt(encrypted) == data
+
+    where:
+    length << [0, 1, AesGcmEncryption.CHUNK_SIZE, AesGcmEncryption.CHUNK_SIZE + 1, 3 * AesGcmEncryption.CHUNK_SIZE]
+  }
+
+  def "should not decrypt modified data"() {
+    given:
+    def encrypted = encryption.encrypt(dataOf(100))
+    encrypted[20] ^= 1
+
+    when:
+    encryption.decrypt(encrypted)
+
+    then:
+    thrown(GeneralSecurityException)
+  }
+
+  def "should not decrypt data with another record key"() {
+    given:
+    def data = dataOf(100)
+    def entry = new byte[3 + encryption.encryptedLength(data.length)]
+    entry[0] = 1
+    entry[1] = 2
+    entry[2] = 3
+    encryption.encrypt(data, data.length, entry, 0, 3)
+    assert encryption.decrypt([1, 2, 3] as byte[], entry, 3, entry.length - 3) == data
+
+    when:
+    encryption.decrypt([1, 2, 4] as byte[], entry, 3, entry.length - 3)
+
+    then:
+    thrown(GeneralSecurityException)
+  }
+
+  def "should not decrypt data truncated by whole chunks"() {
+    given:
+    def encrypted = encryption.encrypt(dataOf(2 * AesGcmEncryption.CHUNK_SIZE))
+
+    when:
+    encryption.decrypt(Arrays.copyOf(encrypted, encryption.encryptedLength(AesGcmEncryption.CHUNK_SIZE)))
+
+    then:
+    thrown(GeneralSecurityException)
+  }
+
+  def "should store records encrypted"() {
+    given:
+    def storage = new RandomAccessFileStorage.Builder(file).encryption(encryption).build()
+    def data = ("secret" * 20).bytes
+
+    when:
+    storage.put(new Record(CollectionKey.of("a", 1), data))
+    storage.put("a", 2, data, data.length)
+    storage.write(new Batch().put(new Record(CollectionKey.of("a", 3), data)))
+    storage.close()
+    storage = new RandomAccessFileStorage.Builder(file).encryption(new AesGcmEncryption(KEY)).build()
+
+    then:
+    !new String(file.bytes, "ISO-8859-1").contains("secret")
+    (1..3).collect { storage.get("a", it).data } == [data] * 3
+    storage.iterate("a").collect { it.data } == [data] * 3
+
+    cleanup:
+    storage.close()
+  }
+
+  def "should fail to read records with another key"() {
+    given:
+    def storage = new RandomAccessFileStorage.Builder(file).encryption(encryption).build()
+    storage.put(new Record(CollectionKey.of("a", 1), "data".bytes))
+    storage.close()
+    storage = new RandomAccessFileStorage.Builder(file).encryption(new AesGcmEncryption(new byte[16])).build()
+
+    when:
+    storage.get("a", 1)
+
+    then:
+    thrown(RuntimeException)
+
+    cleanup:
+    storage.close()
+  }
+}
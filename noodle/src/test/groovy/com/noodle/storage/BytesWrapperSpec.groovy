@@ -93,4 +93,34 @@ class BytesWrapperSpec extends RoboSpecification {
     "shorter"          | "02" | "0"  | 1
     "longer"           | "0"  | "01" | -1
   }
-}
\ No newline at end of file
+
+  @Unroll
+  def "should compare bytes as unsigned with #name"(name, List<Integer> b1, List<Integer> b2, int sign) {
+    given:
+    def first = new BytesWrapper(b1 as byte[])
+    def second = new BytesWrapper(b2 as byte[])
+
+    expect:
+    Integer.signum(first.compareTo(second)) == sign
+    Integer.signum(second.compareTo(first)) == -sign
+
+    where:
+    name                     | b1                 | b2                 | sign
+    "equal high bytes"       | [0x80, 0xFF]       | [0x80, 0xFF]       | 0
+    "high and low byte"      | [0x80]             | [0x7F]             | 1
+    "0xFF and zero"          | [0xFF]             | [0x00]             | 1
+    "high bytes"             | [0xFF]             | [0x80]             | 1
+    "prefix and longer key"  | [0x01, 0x80]       | [0x01, 0x80, 0x00] | -1
+    "longer key after high"  | [0x01, 0x81]       | [0x01, 0x80, 0xFF] | 1
+  }
+
+  def "should sort keys in the order of UTF-8 strings"() {
+    given:
+    def strings = ["b", "a", "\u00e9", "z", "\u4e2d", "ab", ""]
+
+    expect:
+    strings.collect { new BytesWrapper(it.getBytes("UTF-8")) }.sort()*.bytes.collect {
+      new String(it, "UTF-8")
+    } == ["", "a", "ab", "b", "z", "\u00e9", "\u4e2d"]
+  }
+}
@@ -0,0 +1,70 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+class CollectionKeySpec extends RoboSpecification {
+
+  def "should create prefix of collection"() {
+    expect:
+    CollectionKey.prefixOf("data") == ([1, 4] + ("data".bytes as List)) as byte[]
+  }
+
+  def "should not create prefix of too long name"() {
+    when:
+    CollectionKey.prefixOf("a" * 256)
+
+    then:
+    thrown IllegalArgumentException
+  }
+
+  @Unroll
+  def "should create and parse key with id #id"(long id) {
+    when:
+    def key = CollectionKey.of("data", id)
+
+    then:
+    key.length == 6 + 8
+    CollectionKey.isCollectionKey(key)
+    CollectionKey.collectionOf(key) == "data"
+    CollectionKey.idOf(key) == id
+
+    where:
+    id << [0, 1, 258, -5, Long.MAX_VALUE, Long.MIN_VALUE]
+  }
+
+  def "should parse collection name in UTF-8"() {
+    expect:
+    CollectionKey.collectionOf(CollectionKey.of("книги", 1)) == "книги"
+  }
+
+  @Unroll
+  def "should not treat #key as collection key"(String key) {
+    expect:
+    !CollectionKey.isCollectionKey(key.bytes)
+
+    where:
+    key << ["data:1", "k-v:key", "", "\u0001"]
+  }
+
+  @Unroll
+  def "should parse legacy key #key"(String key, boolean valid, long id) {
+    given:
+    def prefixLength = CollectionKey.legacyPrefixOf("data").length
+
+    expect:
+    CollectionKey.isLegacyKey(key.bytes, prefixLength) == valid
+    !valid || CollectionKey.legacyIdOf(key.bytes, prefixLength) == id
+
+    where:
+    key                       | valid | id
+    "data:1"                  | true  | 1
+    "data:-5"                 | true  | -5
+    "data:123456789"          | true  | 123456789
+    "data:"                   | false | 0
+    "data:-"                  | false | 0
+    "data:1-2"                | false | 0
+    "data:abc"                | false | 0
+    "data:12345678901234567890" | false | 0
+  }
+}
@@ -0,0 +1,186 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+import static com.noodle.util.ThreadUtils.spawnThreads
+
+class CompactorSpec extends RoboSpecification {
+
+  private Random random = new Random(123)
+
+  private File file
+  private RandomAccessFileStorage storage
+
+  void setup() {
+    file = new File("test-compaction.noodle")
+    storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(2f)
+        .build()
+  }
+
+  void cleanup() {
+    storage = null
+    file.delete()
+  }
+
+  private List<Record> putRecords(int count) {
+    def records = []
+    count.times {
+      byte[] data = new byte[128]
+      random.nextBytes(data)
+      def r = new Record("$it".bytes, data)
+      records << r
+      storage.put(r)
+    }
+    return records
+  }
+
+  def "should track dead bytes"() {
+    given:
+    def records = putRecords(10)
+
+    when:
+    storage.remove(records[0].key)
+    storage.put(new Record(records[1].key, "updated".bytes))
+
+    then:
+    storage.deadBytes == records[0].size() + 8 + records[0].key.length + records[1].size()
+    storage.compactor.garbageRatio == (float) storage.deadBytes / file.size()
+  }
+
+  def "should shrink file to live records after compaction"() {
+    given:
+    def records = putRecords(1000)
+    500.times { storage.remove(records[it].key) }
+
+    when:
+    storage.compactor.compact()
+
+    then:
+    file.size() == records.subList(500, 1000).sum { it.size() }
+    storage.deadBytes == 0
+    storage.index.size() == 500
+    records.subList(500, 1000).every { storage.get(it.key) == it }
+  }
+
+  def "should remap compacted file"() {
+    given:
+    def records = putRecords(100)
+    50.times { storage.remove(records[it].key) }
+    storage.compactor.compact()
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.index.size() == 50
+    records.subList(50, 100).every { anotherStorage.get(it.key) == it }
+  }
+
+  def "should compact automatically when garbage ratio is crossed"() {
+    given:
+    storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(0.5f)
+        .minCompactionSize(0)
+        .compactionExecutor({ it.run() } as Executor)
+        .build()
+    def records = putRecords(100)
+
+    when:
+    60.times { storage.remove(records[it].key) }
+
+    then:
+    storage.compactor.garbageRatio < 0.5f
+    records.subList(60, 100).every { storage.get(it.key) == it }
+  }
+
+  def "should keep records written during compaction"() {
+    given:
+    def records = putRecords(1000)
+    500.times { storage.remove(records[it].key) }
+
+    when:
+    def latch = spawnThreads(5) { n ->
+      storage.put(new Record("new-$n".bytes, "written during compaction".bytes))
+    }
+    storage.compactor.compact()
+    latch.await()
+
+    then:
+    5.times { n ->
+      assert storage.get("new-$n".bytes) != null
+    }
+    records.subList(500, 1000).every { storage.get(it.key) == it }
+  }
+
+  def "should keep the error of failed compaction and not retry it on every write"() {
+    given:
+    def compactions = 0
+    storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(0.5f)
+        .minCompactionSize(0)
+        .compactionExecutor({ compactions++; it.run() } as Executor)
+        .build()
+    def records = putRecords(100)
+    // Compacted file can not be created in place of the directory.
+    def compactedFile = new File(file.path + ".compact")
+    compactedFile.mkdir()
+    def blocker = new File(compactedFile, "blocker")
+    blocker.createNewFile()
+
+    when:
+    60.times { storage.remove(records[it].key) }
+
+    then:
+    compactions == 1
+    storage.compactor.lastError instanceof IOException
+    storage.compactor.shouldCompact()
+
+    when:
+    storage.compactor.compact()
+
+    then:
+    thrown(RuntimeException)
+    storage.compactor.lastError instanceof IOException
+
+    when:
+    blocker.delete()
+    compactedFile.delete()
+    storage.compactor.compact()
+
+    then:
+    storage.compactor.lastError == null
+    records.subList(60, 100).every { storage.get(it.key) == it }
+
+    cleanup:
+    blocker.delete()
+    compactedFile.delete()
+  }
+
+  def "should stop compaction on close"() {
+    given:
+    def compactions = 0
+    storage = new RandomAccessFileStorage.Builder(file)
+        .compactionExecutor({ compactions++; it.run() } as Executor)
+        .build()
+    def defaultFile = new File(file.path + "-default")
+    def defaultStorage = new RandomAccessFileStorage.Builder(defaultFile).build()
+    defaultStorage.compactor.compactAsync()
+
+    when:
+    storage.close()
+    defaultStorage.close()
+    storage.compactor.compactAsync()
+
+    then:
+    compactions == 0
+    defaultStorage.compactor.defaultExecutor.awaitTermination(10, TimeUnit.SECONDS)
+
+    cleanup:
+    defaultFile.delete()
+    IndexSnapshot.fileOf(defaultFile).delete()
+  }
+}
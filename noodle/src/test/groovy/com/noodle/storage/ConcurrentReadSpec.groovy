@@ -0,0 +1,93 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Checks that readers get consistent records, while a single writer keeps appending them.
+ * Read throughput is measured by ConcurrentStorageBenchmark of noodle-benchmark.
+ */
+class ConcurrentReadSpec extends RoboSpecification {
+
+  private static final int RECORDS = 10000
+  private static final long DURATION_MS = 1000
+
+  private RandomAccessFileStorage storage
+  private File file
+
+  void setup() {
+    file = new File("test-concurrent-read.noodle")
+    storage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+    RECORDS.times {
+      storage.put(new Record("key-$it".bytes, "value-$it".bytes))
+    }
+  }
+
+  void cleanup() {
+    storage.close()
+    file.delete()
+    IndexSnapshot.fileOf(file).delete()
+  }
+
+  @Unroll
+  def "should read consistent records in parallel with #readers readers"(int readers) {
+    given:
+    def running = new AtomicBoolean(true)
+    def reads = new AtomicLong()
+    def failures = new AtomicLong()
+    def errors = Collections.synchronizedList([])
+    def finished = new CountDownLatch(readers + 1)
+
+    readers.times {
+      new Thread({
+        try {
+          def random = new Random()
+          while (running.get()) {
+            def n = random.nextInt(RECORDS)
+            def record = storage.get("key-$n".bytes)
+            if (record == null || new String(record.data) != "value-$n") {
+              failures.incrementAndGet()
+            }
+            reads.incrementAndGet()
+          }
+        } catch (Throwable e) {
+          errors << e
+        } finally {
+          finished.countDown()
+        }
+      }).start()
+    }
+
+    new Thread({
+      try {
+        int n = 0
+        while (running.get()) {
+          storage.put(new Record("key-${n % RECORDS}".bytes, "value-${n % RECORDS}".bytes))
+          n++
+        }
+      } catch (Throwable e) {
+        errors << e
+      } finally {
+        finished.countDown()
+      }
+    }).start()
+
+    when:
+    Thread.sleep(DURATION_MS)
+    running.set(false)
+
+    then:
+    finished.await(10, TimeUnit.SECONDS)
+    errors.isEmpty()
+    failures.get() == 0
+    reads.get() > 0
+
+    where:
+    readers << [1, 2, 4, 8]
+  }
+}
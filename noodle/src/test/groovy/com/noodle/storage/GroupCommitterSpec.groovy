@@ -0,0 +1,123 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.noodle.util.ThreadUtils.spawnThreads
+
+class GroupCommitterSpec extends RoboSpecification {
+
+  private AtomicInteger syncs = new AtomicInteger()
+  private GroupCommitter committer
+
+  private File file
+
+  void cleanup() {
+    committer?.close()
+    file?.delete()
+  }
+
+  def "should merge concurrent writes into fewer syncs"() {
+    given:
+    def sequence = new AtomicInteger()
+    committer = new GroupCommitter({
+      Thread.sleep(20)
+      syncs.incrementAndGet()
+    } as GroupCommitter.Syncable, 50, Long.MAX_VALUE)
+
+    when:
+    spawnThreads(20) {
+      committer.awaitDurable(sequence.incrementAndGet(), 10)
+    }.await()
+
+    then:
+    syncs.get() < 20
+  }
+
+  def "should sync right away when enough bytes are pending"() {
+    given:
+    committer = new GroupCommitter({ syncs.incrementAndGet() } as GroupCommitter.Syncable, 60000, 100)
+
+    when:
+    committer.awaitDurable(1, 10)
+    committer.awaitDurable(2, 200)
+
+    then:
+    syncs.get() == 2
+  }
+
+  def "should fail writes of failed sync"() {
+    given:
+    committer = new GroupCommitter({
+      if (syncs.incrementAndGet() == 1) {
+        throw new IOException("Disk is full")
+      }
+    } as GroupCommitter.Syncable, 0, 0)
+
+    when:
+    committer.awaitDurable(1, 10)
+
+    then:
+    thrown IOException
+
+    when:
+    committer.awaitDurable(2, 10)
+
+    then:
+    noExceptionThrown()
+  }
+
+  def "should fail writes of consecutive failed syncs, when waiters wake up late"() {
+    given:
+    committer = new GroupCommitter({
+      syncs.incrementAndGet()
+      throw new IOException("Disk is full")
+    } as GroupCommitter.Syncable, 0, 0)
+    def sequence = new AtomicInteger()
+    def succeeded = new AtomicInteger()
+
+    when:
+    spawnThreads(8) {
+      200.times {
+        try {
+          committer.awaitDurable(sequence.incrementAndGet(), 10)
+          succeeded.incrementAndGet()
+        } catch (IOException ignored) {
+          // Expected for every write.
+        }
+      }
+    }.await()
+
+    then:
+    syncs.get() > 1
+    succeeded.get() == 0
+  }
+
+  @Unroll
+  def "should keep records written from many threads with #durability durability"(Durability durability) {
+    given:
+    file = new File("test-durability.noodle")
+    def storage = new RandomAccessFileStorage.Builder(file)
+        .durability(durability)
+        .groupCommitInterval(5)
+        .build()
+
+    when:
+    spawnThreads(10) { n ->
+      20.times { storage.put(new Record(CollectionKey.of("thread-$n", it + 1), "data".bytes)) }
+    }.await()
+    storage.close()
+    def reopened = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    (0..<10).every { reopened.count("thread-$it") == 20 }
+
+    cleanup:
+    IndexSnapshot.fileOf(file).delete()
+
+    where:
+    durability << Durability.values()
+  }
+}
@@ -0,0 +1,125 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class IndexSnapshotSpec extends RoboSpecification {
+
+  private File file
+  private RandomAccessFileStorage storage
+
+  void setup() {
+    file = new File("test-snapshot.noodle")
+    storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(2f)
+        .build()
+  }
+
+  void cleanup() {
+    storage = null
+    file.delete()
+    IndexSnapshot.fileOf(file).delete()
+  }
+
+  private void putRecords() {
+    (1..100).each { storage.put(new Record(CollectionKey.of("data", it), "$it".bytes)) }
+    (1..10).each { storage.put(new Record("key-$it".bytes, "$it".bytes)) }
+    (1..50).each { storage.remove(CollectionKey.of("data", it)) }
+  }
+
+  def "should write snapshot on close"() {
+    given:
+    putRecords()
+    def deadBytes = storage.deadBytes
+
+    when:
+    storage.close()
+    def snapshot = new RandomAccessFile(file, "r").withCloseable { IndexSnapshot.read(file, it) }
+
+    then:
+    snapshot != null
+    snapshot.coveredLength == file.size()
+    snapshot.deadBytes == deadBytes
+    snapshot.keys.length == 60
+  }
+
+  def "should restore index from snapshot"() {
+    given:
+    putRecords()
+    storage.checkpoint()
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.count("data") == 50
+    anotherStorage.index.size() == 10
+    anotherStorage.deadBytes == storage.deadBytes
+    (51..100).every { anotherStorage.get("data", it).data == "$it".bytes }
+  }
+
+  def "should replay entries appended after snapshot"() {
+    given:
+    putRecords()
+    storage.checkpoint()
+
+    when:
+    storage.put(new Record(CollectionKey.of("data", 200), "new".bytes))
+    storage.remove(CollectionKey.of("data", 60))
+    storage.remove("key-1".bytes)
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.count("data") == 50
+    anotherStorage.get("data", 200).data == "new".bytes
+    anotherStorage.get("data", 60) == null
+    anotherStorage.index.size() == 9
+    anotherStorage.deadBytes == storage.deadBytes
+  }
+
+  def "should scan whole file if snapshot is corrupted"() {
+    given:
+    putRecords()
+    storage.checkpoint()
+    new RandomAccessFile(IndexSnapshot.fileOf(file), "rw").withCloseable {
+      it.seek(it.length() - 20)
+      it.write(0xFF)
+    }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.count("data") == 50
+    anotherStorage.index.size() == 10
+    anotherStorage.deadBytes == storage.deadBytes
+  }
+
+  def "should not use snapshot of another file"() {
+    given:
+    putRecords()
+    storage.checkpoint()
+    file.delete()
+    storage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+    (1..200).each { storage.put(new Record("other-$it".bytes, "a".bytes)) }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.count("data") == 0
+    anotherStorage.index.size() == 200
+  }
+
+  def "should delete snapshot on compaction"() {
+    given:
+    putRecords()
+    storage.checkpoint()
+
+    when:
+    storage.compactor.compact()
+
+    then:
+    !IndexSnapshot.fileOf(file).exists()
+    new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION).count("data") == 50
+  }
+}
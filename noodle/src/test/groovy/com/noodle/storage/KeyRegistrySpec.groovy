@@ -0,0 +1,148 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class KeyRegistrySpec extends RoboSpecification {
+
+  private File file
+  private RandomAccessFileStorage storage
+
+  void setup() {
+    file = new File("test-registry.noodle")
+    storage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+  }
+
+  void cleanup() {
+    storage = null
+    file.delete()
+  }
+
+  def "should count records of each collection"() {
+    given:
+    def registry = new KeyRegistry()
+
+    when:
+    (1..10).each { registry.put(CollectionKey.of("data", it), it * 100) }
+    (1..3).each { registry.put(CollectionKey.of("database", it), it) }
+    registry.remove(CollectionKey.of("data", 10))
+
+    then:
+    registry.count("data") == 9
+    registry.count("database") == 3
+    registry.count("unknown") == 0
+    registry.maxId("data") == 10
+    registry.maxId("database") == 3
+  }
+
+  def "should find positions by collection and id"() {
+    given:
+    def registry = new KeyRegistry()
+
+    when:
+    (1..10).each { registry.put(CollectionKey.of("data", it), it * 100) }
+    registry.remove(CollectionKey.of("data", 5))
+
+    then:
+    registry.positionOf("data", 3) == 300
+    registry.positionOf(CollectionKey.of("data", 3)) == 300
+    registry.positionOf("data", 5) == KeyRegistry.NO_POSITION
+    registry.positionOf("unknown", 3) == KeyRegistry.NO_POSITION
+    registry.positionOf(CollectionKey.of("unknown", 3)) == KeyRegistry.NO_POSITION
+  }
+
+  def "should get records by collection and id"() {
+    given:
+    (1..100).each { storage.put(new Record(CollectionKey.of("data", it), "$it".bytes)) }
+    storage.remove(CollectionKey.of("data", 50))
+
+    expect:
+    storage.get("data", 42) == new Record(CollectionKey.of("data", 42), "42".bytes)
+    storage.get("data", 50) == null
+    storage.get("unknown", 42) == null
+    storage.index.isEmpty()
+  }
+
+  def "should list collection keys in order of ids"() {
+    given:
+    [5, 3, 9, 1].each { storage.put(new Record(CollectionKey.of("data", it), "a".bytes)) }
+    storage.put(new Record(CollectionKey.of("database", 1), "a".bytes))
+
+    when:
+    def keys = storage.prefixedWith(CollectionKey.prefixOf("data"))
+
+    then:
+    keys.collect { CollectionKey.idOf(it) } == [1L, 3L, 5L, 9L]
+  }
+
+  def "should keep positions of collection records after compaction"() {
+    given:
+    (1..100).each { storage.put(new Record(CollectionKey.of("data", it), "$it".bytes)) }
+    (1..50).each { storage.remove(CollectionKey.of("data", it)) }
+
+    when:
+    storage.compactor.compact()
+
+    then:
+    storage.count("data") == 50
+    (51..100).every { storage.get("data", it).data == "$it".bytes }
+  }
+
+  def "should track collections in storage"() {
+    when:
+    (1..100).each { storage.put(new Record(CollectionKey.of("data", it), "a".bytes)) }
+    (1..30).each { storage.remove(CollectionKey.of("data", it)) }
+    storage.put(new Record(CollectionKey.of("data", 50), "b".bytes))
+
+    then:
+    storage.count("data") == 70
+    storage.maxId("data") == 100
+  }
+
+  def "should restore collections on remap"() {
+    given:
+    (1..100).each { storage.put(new Record(CollectionKey.of("data", it), "a".bytes)) }
+    (1..30).each { storage.remove(CollectionKey.of("data", it)) }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.count("data") == 70
+    anotherStorage.maxId("data") == 100
+  }
+
+  def "should read positions without locks while they are written"() {
+    given:
+    def registry = new KeyRegistry()
+    (1..1000).each { registry.put("data", it, it * 10) }
+    def running = true
+    def errors = Collections.synchronizedList([])
+    def readers = (1..4).collect {
+      Thread.start {
+        try {
+          def random = new Random(it)
+          while (running) {
+            def id = random.nextInt(2000) + 1
+            def position = registry.positionOf("data", id)
+            if (position != KeyRegistry.NO_POSITION && position != id * 10) {
+              errors << "$id at $position"
+            }
+          }
+        } catch (Throwable e) {
+          errors << e
+        }
+      }
+    }
+
+    when:
+    // Puts and removes make the map grow and shift entries.
+    (1001..2000).each { registry.put("data", it, it * 10) }
+    (1..2000).step(3) { registry.remove(CollectionKey.of("data", it)) }
+    running = false
+    readers*.join(10000)
+
+    then:
+    errors.isEmpty()
+    registry.count("data") == 2000 - 667
+  }
+}
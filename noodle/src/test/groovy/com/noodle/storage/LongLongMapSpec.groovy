@@ -0,0 +1,74 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class LongLongMapSpec extends RoboSpecification {
+
+  private LongLongMap map = new LongLongMap()
+
+  def "should put and remove values"() {
+    when:
+    map.put(1, 10)
+    map.put(0, 20)
+    map.put(-1, 30)
+
+    then:
+    map.size() == 3
+    map.get(0) == 20
+    map.get(-1) == 30
+
+    when:
+    def removed = map.remove(0)
+
+    then:
+    removed == 20
+    map.size() == 2
+    map.get(0) == LongLongMap.NO_VALUE
+    map.get(1) == 10
+  }
+
+  def "should replace value of the same key"() {
+    expect:
+    map.put(5, 1) == LongLongMap.NO_VALUE
+    map.put(5, 2) == 1
+    map.get(5) == 2
+    map.size() == 1
+  }
+
+  def "should behave as java map on random operations"() {
+    given:
+    def random = new Random(42)
+    def expected = new HashMap<Long, Long>()
+
+    when:
+    100000.times {
+      long key = random.nextInt(2000) - 100
+      if (random.nextBoolean()) {
+        long value = random.nextInt(1000000)
+        assert map.put(key, value) == orNoValue(expected.put(key, value))
+      } else {
+        assert map.remove(key) == orNoValue(expected.remove(key))
+      }
+    }
+
+    then:
+    map.size() == expected.size()
+    (-100L..<1900L).every { map.get(it) == orNoValue(expected.get(it)) }
+  }
+
+  def "should copy all entries"() {
+    given:
+    (0..99).each { map.put(it, it * 2) }
+
+    when:
+    def entries = map.entries()
+
+    then:
+    entries.length == 200
+    (0..<100).every { entries[it * 2 + 1] == entries[it * 2] * 2 }
+  }
+
+  private static long orNoValue(Long value) {
+    return value != null ? value : LongLongMap.NO_VALUE
+  }
+}
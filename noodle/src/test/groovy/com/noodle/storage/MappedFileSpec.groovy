@@ -0,0 +1,65 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class MappedFileSpec extends RoboSpecification {
+
+  private File file
+  private RandomAccessFile randomAccessFile
+
+  void setup() {
+    file = new File("test-mapped.noodle")
+    randomAccessFile = new RandomAccessFile(file, "rw")
+    randomAccessFile.write((0..99).collect { it as byte } as byte[])
+  }
+
+  void cleanup() {
+    randomAccessFile.close()
+    file.delete()
+  }
+
+  def "should read bytes across regions"() {
+    given:
+    def mapped = new MappedFile(randomAccessFile.channel, 16, 100)
+    def bytes = new byte[40]
+
+    when:
+    mapped.read(10, bytes)
+
+    then:
+    bytes == (10..49).collect { it as byte } as byte[]
+  }
+
+  def "should read int on region boundary"() {
+    given:
+    def mapped = new MappedFile(randomAccessFile.channel, 16, 100)
+
+    expect:
+    mapped.readInt(14) == 0x0E0F1011
+  }
+
+  def "should remap last region when file grows"() {
+    given:
+    def mapped = new MappedFile(randomAccessFile.channel, 64, 100)
+    mapped.readInt(96)
+
+    when:
+    randomAccessFile.seek(100)
+    randomAccessFile.writeInt(42)
+    mapped.setLength(104)
+
+    then:
+    mapped.readInt(100) == 42
+  }
+
+  def "should not read beyond the length"() {
+    given:
+    def mapped = new MappedFile(randomAccessFile.channel, 64, 100)
+
+    when:
+    mapped.readInt(98)
+
+    then:
+    thrown IOException
+  }
+}
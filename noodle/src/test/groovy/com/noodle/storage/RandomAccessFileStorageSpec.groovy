@@ -40,6 +40,19 @@ class RandomAccessFileStorageSpec extends RoboSpecification {
     storage.get(r.key) == r
   }
 
+  def "should close only once"() {
+    given:
+    storage.put(r1)
+
+    when:
+    storage.close()
+    storage.close()
+
+    then:
+    noExceptionThrown()
+    new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION).get(r1.key) == r1
+  }
+
   def "should remap indexes"() {
     given:
     def records = [r1, r2, r3]
@@ -84,7 +97,7 @@ class RandomAccessFileStorageSpec extends RoboSpecification {
   }
 
   @Unroll
-  def "should shrink file when deleting items at #part"(int start, String part) {
+  def "should append tombstones when deleting items at #part"(int start, String part) {
     given:
     int totalSize = 0
     def records = []
@@ -100,14 +113,17 @@ class RandomAccessFileStorageSpec extends RoboSpecification {
     }
 
     when:
-    int removedSize = 0
+    int tombstonesSize = 0
     for (int i = start; i < start + 500; i++) {
       storage.remove(records[i].key)
-      removedSize += records[i].size()
+      tombstonesSize += 8 + records[i].key.length
     }
 
     then:
-    file.size() == totalSize - removedSize
+    file.size() == totalSize + tombstonesSize
+    storage.index.size() == 500
+    storage.get(records[start].key) == null
+    storage.get(records[(start + 500) % 1000].key) == records[(start + 500) % 1000]
 
     where:
     start | part
@@ -115,4 +131,266 @@ class RandomAccessFileStorageSpec extends RoboSpecification {
     250   | "middle"
     500   | "end"
   }
-}
\ No newline at end of file
+
+  def "should append new version when updating record"() {
+    given:
+    storage.put(r1)
+    storage.put(r2)
+    def updated = new Record(r1.key, "updated".bytes)
+
+    when:
+    storage.put(updated)
+
+    then:
+    file.size() == r1.size() + r2.size() + updated.size()
+    storage.get(r1.key) == updated
+    storage.get(r2.key) == r2
+  }
+
+  def "should replay updates and tombstones on remap"() {
+    given:
+    def updated = new Record(r2.key, "updated".bytes)
+    [r1, r2, r3].each { storage.put it }
+    storage.remove(r1.key)
+    storage.put(updated)
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.index.size() == 2
+    anotherStorage.get(r1.key) == null
+    anotherStorage.get(r2.key) == updated
+    anotherStorage.get(r3.key) == r3
+  }
+
+  def "should put all records with one batch"() {
+    given:
+    def updated = new Record(r1.key, "updated".bytes)
+    storage.put(r1)
+
+    when:
+    storage.putAll([r2, r3, updated])
+
+    then:
+    // Batch is framed by begin and commit markers, 8 bytes each.
+    file.size() == r1.size() + r2.size() + r3.size() + updated.size() + 16
+    storage.deadBytes == r1.size() + 16
+    storage.get(r1.key) == updated
+    storage.get(r2.key) == r2
+    storage.get(r3.key) == r3
+  }
+
+  def "should put batch larger than a chunk"() {
+    given:
+    def records = (1..300).collect {
+      byte[] data = new byte[10 * 1024]
+      random.nextBytes(data)
+      new Record("$it".bytes, data)
+    }
+
+    when:
+    storage.putAll(records)
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    file.size() == records.sum { it.size() } + 16
+    records.every { storage.get(it.key) == it }
+    records.every { anotherStorage.get(it.key) == it }
+  }
+
+  def "should apply batch operations in order"() {
+    given:
+    storage.put(r1)
+    def batch = new Batch()
+        .put(r2)
+        .remove(r1.key)
+        .remove("missing".bytes)
+        .put(r3)
+        .remove(r3.key)
+
+    when:
+    storage.write(batch)
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    storage.get(r1.key) == null
+    storage.get(r2.key) == r2
+    storage.get(r3.key) == null
+    anotherStorage.index.keySet() == [new BytesWrapper(r2.key)] as Set
+    anotherStorage.deadBytes == storage.deadBytes
+  }
+
+  def "should drop torn batch on remap"() {
+    given:
+    storage.put(r1)
+    def committedLength = file.size()
+    storage.write(new Batch().put(r2).put(r3))
+    new RandomAccessFile(file, "rw").withCloseable { it.setLength(it.length() - 3) }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.get(r1.key) == r1
+    anotherStorage.get(r2.key) == null
+    anotherStorage.get(r3.key) == null
+    file.size() == committedLength
+  }
+
+  def "should drop batch with wrong checksum on remap"() {
+    given:
+    storage.put(r1)
+    def committedLength = file.size()
+    storage.write(new Batch().put(r2).put(r3))
+    new RandomAccessFile(file, "rw").withCloseable {
+      it.seek(committedLength + 8 + 8)
+      it.write(0xFF)
+    }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.get(r1.key) == r1
+    anotherStorage.get(r2.key) == null
+    file.size() == committedLength
+  }
+
+  def "should drop torn entry on remap"() {
+    given:
+    storage.put(r1)
+    storage.put(r2)
+    new RandomAccessFile(file, "rw").withCloseable { it.setLength(it.length() - 1) }
+
+    when:
+    def anotherStorage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+
+    then:
+    anotherStorage.get(r1.key) == r1
+    anotherStorage.get(r2.key) == null
+    file.size() == r1.size()
+  }
+
+  @Unroll
+  def "should read records from memory mapped file with region size #regionSize"(int regionSize) {
+    given:
+    storage = new RandomAccessFileStorage.Builder(file)
+        .memoryMapped(true)
+        .mappedRegionSize(regionSize)
+        .build()
+
+    def records = []
+    100.times {
+      byte[] data = new byte[random.nextInt(300)]
+      random.nextBytes(data)
+      records << new Record("$it".bytes, data)
+    }
+
+    when:
+    records.each { storage.put(it) }
+
+    then:
+    records.every { storage.get(it.key) == it }
+
+    and:
+    def reopened = new RandomAccessFileStorage.Builder(file)
+        .memoryMapped(true)
+        .mappedRegionSize(regionSize)
+        .build()
+    records.every { reopened.get(it.key) == it }
+
+    where:
+    regionSize << [64, 1000, RandomAccessFileStorage.DEFAULT_MAPPED_REGION_SIZE]
+  }
+
+  def "should read memory mapped records after compaction"() {
+    given:
+    storage = new RandomAccessFileStorage.Builder(file)
+        .memoryMapped(true)
+        .garbageRatio(2f)
+        .build()
+    [r1, r2, r3].each { storage.put it }
+    storage.remove(r1.key)
+
+    when:
+    storage.compactor.compact()
+
+    then:
+    storage.get(r1.key) == null
+    storage.get(r2.key) == r2
+    storage.get(r3.key) == r3
+  }
+
+  @Unroll
+  def "should find keys prefixed with #prefix"(String prefix, List<String> expected) {
+    given:
+    ["a:1", "a:2", "ab:1", "b:1", "b", "ä:1", "ä:2"].each {
+      storage.put(new Record(it.bytes, "data".bytes))
+    }
+
+    when:
+    def keys = storage.prefixedWith(prefix.bytes).collect { new String(it) }
+
+    then:
+    keys.sort() == expected.sort()
+
+    where:
+    prefix | expected
+    "a:"   | ["a:1", "a:2"]
+    "a"    | ["a:1", "a:2", "ab:1"]
+    "b"    | ["b", "b:1"]
+    "ä"    | ["ä:1", "ä:2"]
+    "c"    | []
+    ""     | ["a:1", "a:2", "ab:1", "b:1", "b", "ä:1", "ä:2"]
+  }
+
+  def "should not find removed keys by prefix"() {
+    given:
+    [r1, r2, r3].each { storage.put it }
+
+    when:
+    storage.remove(r2.key)
+
+    then:
+    storage.prefixedWith("2".bytes).isEmpty()
+    storage.prefixedWith("".bytes).size() == 2
+  }
+
+  def "should scan live records of collection in file order"() {
+    given:
+    (1..5).each { storage.put(new Record(CollectionKey.of("data", it), "v$it".bytes)) }
+    storage.put(new Record(CollectionKey.of("other", 1), "other".bytes))
+    storage.put(new Record(CollectionKey.of("data", 2), "updated".bytes))
+    storage.remove(CollectionKey.of("data", 4))
+
+    when:
+    def data = storage.iterate("data").collect { new String(it.data) }
+
+    then:
+    data == ["v1", "v3", "v5", "updated"]
+  }
+
+  def "should scan records updated and compacted during iteration once"() {
+    given:
+    storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(2f)
+        .build()
+    (1..1000).each { storage.put(new Record(CollectionKey.of("data", it), "v$it".bytes)) }
+    def iterator = storage.iterate("data")
+
+    when:
+    def first = iterator.next()
+    storage.put(new Record(CollectionKey.of("data", 500), "updated".bytes))
+    storage.remove(CollectionKey.of("data", 600))
+    storage.compactor.compact()
+    def rest = iterator.collect { new String(it.data) }
+
+    then:
+    new String(first.data) == "v1"
+    rest.size() == 998
+    rest.count { it == "updated" } == 1
+    !rest.contains("v600")
+  }
+}
+
@@ -0,0 +1,73 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class RecordCacheSpec extends RoboSpecification {
+
+  static Record r1 = new Record("1".bytes, new byte[100]),
+                r2 = new Record("2".bytes, new byte[100]),
+                r3 = new Record("3".bytes, new byte[100])
+
+  private File file = new File("test.noodle")
+
+  void cleanup() {
+    file.delete()
+    IndexSnapshot.fileOf(file).delete()
+  }
+
+  def "should evict least recently used records over the size"() {
+    given:
+    def cache = new RecordCache(2 * (r1.size() + 96))
+    cache.put(0, r1, 0)
+    cache.put(10, r2, 0)
+
+    when:
+    cache.get(0)
+    cache.put(20, r3, 0)
+
+    then:
+    cache.get(0).is(r1)
+    cache.get(10) == null
+    cache.get(20).is(r3)
+  }
+
+  def "should not cache record read before the cache was cleared"() {
+    given:
+    def cache = new RecordCache(1024)
+
+    when:
+    cache.clear(2)
+    cache.put(0, r1, 0)
+    cache.put(10, r2, 2)
+
+    then:
+    cache.get(0) == null
+    cache.get(10).is(r2)
+    cache.size() > 0
+  }
+
+  def "should read actual records from the cache after updates and compaction"() {
+    given:
+    def storage = new RandomAccessFileStorage.Builder(file)
+        .garbageRatio(2f)
+        .recordCacheSize(1024 * 1024)
+        .build()
+    def updated = new Record(r2.key, "updated".bytes)
+    [r1, r2, r3].each { storage.put it }
+    [r1, r2, r3].each { storage.get it.key }
+
+    when:
+    storage.remove(r1.key)
+    storage.put(updated)
+    storage.compactor.compact()
+
+    then:
+    storage.get(r1.key) == null
+    storage.get(r2.key) == updated
+    storage.get(r3.key) == r3
+    storage.get(r3.key).is(storage.get(r3.key))
+
+    cleanup:
+    storage.close()
+  }
+}
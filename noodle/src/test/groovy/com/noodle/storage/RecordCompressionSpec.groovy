@@ -0,0 +1,147 @@
+package com.noodle.storage
+
+import org.robospock.RoboSpecification
+
+class RecordCompressionSpec extends RoboSpecification {
+
+  private File file = new File("test.noodle")
+
+  void cleanup() {
+    file.delete()
+    IndexSnapshot.fileOf(file).delete()
+  }
+
+  private static byte[] textOf(int i) {
+    ("{\"author\":\"Author $i\",\"title\":\"Some title\"}" * 20).bytes
+  }
+
+  def "should restore compressed data"() {
+    given:
+    def compression = new RecordCompression(null)
+    def data = textOf(1)
+
+    when:
+    def compressed = compression.compress(data, data.length)
+
+    then:
+    compressed.length < data.length
+    compression.decompress(compressed) == data
+  }
+
+  def "should not compress small or incompressible data"() {
+    given:
+    def compression = new RecordCompression(null)
+    def random = new byte[1024]
+    new Random(1).nextBytes(random)
+
+    expect:
+    compression.compress("small".bytes, 5) == null
+    compression.compress(random, random.length) == null
+  }
+
+  def "should pool deflaters and inflaters until closed"() {
+    given:
+    def compression = new RecordCompression(null)
+    def data = textOf(1)
+    def compressed = compression.compress(data, data.length)
+    compression.decompress(compressed)
+
+    when:
+    compression.close()
+
+    then:
+    compression.deflaters.isEmpty()
+    compression.inflaters.isEmpty()
+    compression.decompress(compression.compress(data, data.length)) == data
+    compression.deflaters.isEmpty()
+    compression.inflaters.isEmpty()
+  }
+
+  def "should store records smaller and read them back"() {
+    given:
+    def plain = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+    (1..100).each { plain.put(new Record(CollectionKey.of("a", it), textOf(it))) }
+    def plainLength = file.length()
+    plain.close()
+    file.delete()
+
+    def storage = new RandomAccessFileStorage.Builder(file).compression(true).build()
+
+    when:
+    (1..100).each { storage.put(new Record(CollectionKey.of("a", it), textOf(it))) }
+
+    then:
+    file.length() < plainLength / 4
+    storage.get("a", 7).data == textOf(7)
+    storage.iterate("a").collect { it.data } == (1..100).collect { textOf(it) }
+    storage.remove(CollectionKey.of("a", 8)).data == textOf(8)
+
+    cleanup:
+    storage.close()
+  }
+
+  def "should read records stored before compression was turned on and after it is off"() {
+    given:
+    def storage = new RandomAccessFileStorage(file, Encryption.NO_ENCRYPTION)
+    storage.put(new Record(CollectionKey.of("a", 1), textOf(1)))
+    storage.close()
+
+    storage = new RandomAccessFileStorage.Builder(file).compression(true).build()
+    storage.write(new Batch().put(new Record(CollectionKey.of("a", 2), textOf(2))))
+    storage.put("a", 3, textOf(3), textOf(3).length)
+    storage.close()
+
+    when:
+    storage = new RandomAccessFileStorage.Builder(file).build()
+
+    then:
+    (1..3).collect { storage.get("a", it).data } == (1..3).collect { textOf(it) }
+
+    cleanup:
+    storage.close()
+  }
+
+  def "should compact compressed records"() {
+    given:
+    def storage = new RandomAccessFileStorage.Builder(file)
+        .compression(true)
+        .garbageRatio(2f)
+        .build()
+    (1..100).each { storage.put(new Record(CollectionKey.of("a", it), textOf(it))) }
+    (1..50).each { storage.remove(CollectionKey.of("a", it)) }
+
+    when:
+    storage.getCompactor().compact()
+
+    then:
+    storage.count("a") == 50
+    storage.get("a", 70).data == textOf(70)
+
+    cleanup:
+    storage.close()
+  }
+
+  def "should not read records compressed with another dictionary"() {
+    given:
+    def storage = new RandomAccessFileStorage.Builder(file)
+        .compression(true)
+        .compressionDictionary(textOf(0))
+        .build()
+    storage.put(new Record(CollectionKey.of("a", 1), textOf(1)))
+    storage.close()
+
+    storage = new RandomAccessFileStorage.Builder(file)
+        .compression(true)
+        .compressionDictionary("another".bytes)
+        .build()
+
+    when:
+    storage.get("a", 1)
+
+    then:
+    thrown(RuntimeException)
+
+    cleanup:
+    storage.close()
+  }
+}
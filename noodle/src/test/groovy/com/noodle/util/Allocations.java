@@ -0,0 +1,59 @@
+package com.noodle.util;
+
+import com.noodle.collection.Collection;
+
+import java.lang.reflect.Method;
+
+/**
+ * Measures heap allocations of the current thread. Loops are written in Java,
+ * so that the measured code is not mixed with allocations of Groovy call sites.
+ * Management API is not in the Android SDK, so it is called by reflection.
+ */
+public final class Allocations {
+
+  private Allocations() {
+  }
+
+  /**
+   * Returns whether the JVM measures allocations of threads.
+   */
+  public static boolean isSupported() {
+    try {
+      final Object threads = threadMXBean();
+      final Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      return type.isInstance(threads)
+          && (Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(threads)
+          && (Boolean) type.getMethod("isThreadAllocatedMemoryEnabled").invoke(threads);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the average number of bytes allocated per put of the item,
+   * or -1 if allocations are not measured.
+   */
+  public static <T> long bytesPerPut(final Collection<T> collection, final T item, final int times)
+      throws Exception {
+    final Object threads = threadMXBean();
+    final Method allocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+        .getMethod("getThreadAllocatedBytes", Long.TYPE);
+    final long threadId = Thread.currentThread().getId();
+
+    final long before = (Long) allocatedBytes.invoke(threads, threadId);
+    for (int i = 0; i < times; i++) {
+      collection.put(item);
+    }
+    final long after = (Long) allocatedBytes.invoke(threads, threadId);
+    if (before < 0 || after < 0) {
+      return -1;
+    }
+    return (after - before) / times;
+  }
+
+  private static Object threadMXBean() throws Exception {
+    return Class.forName("java.lang.management.ManagementFactory")
+        .getMethod("getThreadMXBean")
+        .invoke(null);
+  }
+}
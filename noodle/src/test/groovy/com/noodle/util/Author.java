@@ -0,0 +1,16 @@
+package com.noodle.util;
+
+import com.google.gson.annotations.SerializedName;
+import com.noodle.Id;
+
+public class Author {
+
+  @Id
+  public long id;
+
+  @SerializedName("full_name")
+  public String name;
+
+  @SerializedName("born")
+  public int birthYear;
+}
@@ -0,0 +1,18 @@
+package com.noodle.util;
+
+import com.noodle.Id;
+import com.noodle.Indexed;
+
+public class Book {
+
+  @Id
+  public long id;
+
+  @Indexed
+  public String author;
+
+  @Indexed
+  public int year;
+
+  public String title;
+}